@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the binding of the rows of the list within a budget of memory allocated per bind, so
+ * that a change which makes scrolling allocate again fails the tests.
+ * Real rows are bound through {@link BookAdapter#onBindViewHolder} on the main thread, the way a
+ * scroll recycles them. The views allocate on their own when their text or image is set, so the
+ * same calls are measured on the same rows without the adapter, and only the bytes the adapter
+ * adds to them count against the budget. The time per bind is written to the log.
+ */
+public class BookAdapterBindBudgetTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "BookAdapterBindBudget";
+
+    private static final int ROWS = 8;
+    private static final int BOOKS = 64;
+    private static final int BITMAP_SIZE = 10;
+    private static final int WARM_UP_BINDS = 500;
+    private static final int MEASURED_BINDS = 2000;
+
+    /**
+     * A row whose thumbnail is in memory only records the bitmap it shows in the cache
+     */
+    private static final long CACHED_BYTES_PER_BIND = 128;
+    /**
+     * A row whose thumbnail is not in memory creates its download task, the reference to its
+     * view, and the entry of the task in the queue of the network threads
+     */
+    private static final long DOWNLOAD_BYTES_PER_BIND = 1024;
+    /**
+     * A row bound again to the same book keeps the download that is already on its way
+     */
+    private static final long REBIND_BYTES_PER_BIND = 32;
+
+    private Context mContext;
+    private ImageCache mImageCache;
+    private List<Book> mBooks;
+    private Bitmap mBitmap;
+    private BookAdapter mAdapter;
+    private List<BookAdapter.BookViewHolder> mHolders;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        File directory = new File(mContext.getCacheDir(), "bind-budget-test");
+        mImageCache = new ImageCache(1024 * 1024, new DiskImageCache(directory, 1024 * 1024));
+        mBooks = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            // A single thumbnail, so that no upgrade is started whatever the speed measured by
+            // the other tests. Its host never resolves, so no image is downloaded.
+            mBooks.add(new Book("id" + i, "Title " + i, Arrays.asList("First Author",
+                    "Second Author"), "A <b>description</b>", "preview" + i,
+                    "http://books.invalid/books/content?id=" + i + "&zoom=5"));
+        }
+        mBitmap = Bitmap.createBitmap(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.RGB_565);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter = new BookAdapter(mContext, mBooks, null, mImageCache);
+                FrameLayout parent = new FrameLayout(mContext);
+                mHolders = new ArrayList<>();
+                for (int i = 0; i < ROWS; i++) {
+                    mHolders.add(mAdapter.onCreateViewHolder(parent, 0));
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Cancels the downloads that are still bound to the rows.
+                for (BookAdapter.BookViewHolder holder : mHolders) {
+                    mAdapter.onViewRecycled(holder);
+                }
+            }
+        });
+        super.tearDown();
+    }
+
+    public void testScrollingThroughCachedThumbnails_staysWithinBudget() throws Throwable {
+        for (Book book : mBooks) {
+            mImageCache.putBitmapInMemory(book.getImageUrl(), mBitmap);
+        }
+        // The books are bound without their display text, like after a restore. It is only
+        // formatted by the first bind of each row, during the warm up.
+        long bindBytes = measureBytesPerBind("cached", new Scroll());
+        for (Book book : mBooks) {
+            assertNotNull(book.getAuthorLine());
+        }
+        long viewBytes = measureBytesPerBind("cached views", new ViewWork() {
+            @Override
+            void setImage(BookAdapter.BookViewHolder holder) {
+                holder.thumbImg.setImageBitmap(mBitmap);
+            }
+        });
+        assertBudget(bindBytes, viewBytes, CACHED_BYTES_PER_BIND);
+    }
+
+    public void testScrollingThroughNewThumbnails_staysWithinBudget() throws Throwable {
+        BookAdapter.prepareDisplayText(mBooks);
+        long bindBytes = measureBytesPerBind("download", new Scroll());
+        long viewBytes = measureBytesPerBind("download views", new ViewWork() {
+            @Override
+            void setImage(BookAdapter.BookViewHolder holder) {
+                holder.thumbImg.setImageResource(R.mipmap.book_cat_launcher);
+            }
+        });
+        assertBudget(bindBytes, viewBytes, DOWNLOAD_BYTES_PER_BIND);
+    }
+
+    public void testRebindingRowsWhileTheirThumbnailsDownload_staysWithinBudget()
+            throws Throwable {
+        BookAdapter.prepareDisplayText(mBooks);
+        long bindBytes = measureBytesPerBind("rebind", new Binds() {
+            @Override
+            public void bind(int index) {
+                // Every row is bound again to its own book, like after a change of its contents.
+                int row = index % ROWS;
+                mAdapter.onBindViewHolder(mHolders.get(row), row);
+            }
+        });
+        // The image of the row is left as it is.
+        long viewBytes = measureBytesPerBind("rebind views", new ViewWork() {
+            @Override
+            int bookFor(int index) {
+                return index % ROWS;
+            }
+        });
+        assertBudget(bindBytes, viewBytes, REBIND_BYTES_PER_BIND);
+    }
+
+    /**
+     * Checks the bytes that the adapter allocates per bind on top of its views. Some runtimes do
+     * not count allocations, the budget is not checked then.
+     */
+    private static void assertBudget(long bindBytes, long viewBytes, long bytesPerBind) {
+        if (bindBytes <= 0) {
+            return;
+        }
+        long adapterBytes = bindBytes - viewBytes;
+        assertTrue("A bind allocates " + adapterBytes + " bytes besides its views, over the "
+                + "budget of " + bytesPerBind, adapterBytes <= bytesPerBind);
+    }
+
+    /**
+     * Warms the binds up, then counts the bytes that the measured ones allocate on the main
+     * thread. The time per bind is written to the log.
+     *
+     * @param name  the name of the binds in the log
+     * @param binds the {@link Binds} to measure
+     * @return the bytes allocated per bind, or 0 if the allocations are not counted
+     */
+    @SuppressWarnings("deprecation")
+    private long measureBytesPerBind(final String name, final Binds binds) throws Throwable {
+        final long[] bytesPerBind = new long[1];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < WARM_UP_BINDS; i++) {
+                    binds.bind(i);
+                }
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocSize();
+                long start = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < MEASURED_BINDS; i++) {
+                    binds.bind(i);
+                }
+                long nanos = SystemClock.elapsedRealtimeNanos() - start;
+                int bytes = Debug.getThreadAllocSize();
+                Debug.stopAllocCounting();
+                bytesPerBind[0] = bytes / MEASURED_BINDS;
+                Log.i(LOG_TAG, name + ": " + bytesPerBind[0] + " bytes and "
+                        + (nanos / MEASURED_BINDS) + " ns per bind");
+            }
+        });
+        return bytesPerBind[0];
+    }
+
+    /**
+     * Binds rows one after the other
+     */
+    private interface Binds {
+        void bind(int index);
+    }
+
+    /**
+     * Binds the books in order to the rows in turn, like a scroll down the list that recycles
+     * the row that left the screen for the next book
+     */
+    private class Scroll implements Binds {
+        @Override
+        public void bind(int index) {
+            mAdapter.onBindViewHolder(mHolders.get(index % ROWS), index % BOOKS);
+        }
+    }
+
+    /**
+     * Makes the calls on the views of the rows that the binds make, without the adapter
+     */
+    private class ViewWork implements Binds {
+        @Override
+        public void bind(int index) {
+            BookAdapter.BookViewHolder holder = mHolders.get(index % ROWS);
+            Book book = mBooks.get(bookFor(index));
+            holder.titleText.setText(book.getTitle());
+            holder.authorsText.setText(book.getAuthorLine());
+            holder.descriptionText.setText(book.getStyledDescription());
+            setImage(holder);
+        }
+
+        int bookFor(int index) {
+            return index % BOOKS;
+        }
+
+        void setImage(BookAdapter.BookViewHolder holder) {
+        }
+    }
+}
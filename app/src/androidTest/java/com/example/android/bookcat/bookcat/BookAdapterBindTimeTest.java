@@ -0,0 +1,84 @@
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.text.Html;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Measures the time needed to bind a row of the result list.
+ * The cost of the four view lookups that every bind used to make before rows had view holders,
+ * and of the text formatting that every bind used to make before it was moved to the background,
+ * are measured on the same rows for comparison. The results are written to the log.
+ */
+public class BookAdapterBindTimeTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "BookAdapterBindTime";
+    private static final int ROUNDS = 20;
+
+    public void testBindTimePerRow() throws Throwable {
+        final Context context = getInstrumentation().getTargetContext();
+        final ArrayList<Book> books = BookJsonParser.readBookList(
+                getInstrumentation().getContext().getAssets().open("volumes_large.json"));
+        assertNotNull(books);
+        // Like the search task, format the text off the main thread.
+        BookAdapter.prepareDisplayText(books);
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                BookAdapter adapter = new BookAdapter(context, books, null);
+                FrameLayout parent = new FrameLayout(context);
+                BookAdapter.BookViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+
+                // Warm up so that class loading and the first layout passes are not counted.
+                bindAll(adapter, holder, books.size());
+
+                long bindNanos = 0;
+                long lookupNanos = 0;
+                long formatNanos = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    bindAll(adapter, holder, books.size());
+                    bindNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                    start = SystemClock.elapsedRealtimeNanos();
+                    for (int i = 0; i < books.size(); i++) {
+                        holder.itemView.findViewById(R.id.title_text_view);
+                        holder.itemView.findViewById(R.id.authors_text_view);
+                        holder.itemView.findViewById(R.id.description_text_view);
+                        holder.itemView.findViewById(R.id.book_image_view);
+                    }
+                    lookupNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                    start = SystemClock.elapsedRealtimeNanos();
+                    for (Book book : books) {
+                        Book.formatAuthorList(book.getAuthors());
+                        if (!book.getDescription().isEmpty()) {
+                            Html.fromHtml(book.getDescription());
+                        }
+                    }
+                    formatNanos += SystemClock.elapsedRealtimeNanos() - start;
+                }
+                long binds = (long) ROUNDS * books.size();
+                Log.i(LOG_TAG, "Bind with view holder: " + (bindNanos / binds)
+                        + " ns per row, view lookups saved: " + (lookupNanos / binds)
+                        + " ns per row, text formatting saved: " + (formatNanos / binds)
+                        + " ns per row");
+                adapter.onViewRecycled(holder);
+            }
+        });
+    }
+
+    private static void bindAll(BookAdapter adapter, BookAdapter.BookViewHolder holder,
+                                int count) {
+        for (int i = 0; i < count; i++) {
+            adapter.onBindViewHolder(holder, i);
+        }
+    }
+}
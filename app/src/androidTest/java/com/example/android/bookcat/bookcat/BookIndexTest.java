@@ -0,0 +1,98 @@
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the searches of the on-device {@link BookIndex}, on a database of its own
+ */
+public class BookIndexTest extends InstrumentationTestCase {
+
+    private static final String DATABASE_NAME = "book-index-test.db";
+    private static final int MAX_BOOKS = 3;
+
+    private Context mContext;
+    private BookIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mIndex = new BookIndex(mContext, DATABASE_NAME, MAX_BOOKS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mIndex.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testSearch_matchesTitleAuthorsAndDescription() {
+        mIndex.addBooks(Arrays.asList(
+                book("1", "The Hobbit", "J.R.R. Tolkien", "A hobbit leaves home"),
+                book("2", "Dune", "Frank Herbert", "Spice and sand")));
+
+        assertIds(mIndex.search("hobbit", 10), "1");
+        assertIds(mIndex.search("herbert", 10), "2");
+        assertIds(mIndex.search("spice", 10), "2");
+        // Every word must match, and may be the start of a word.
+        assertIds(mIndex.search("tolk hob", 10), "1");
+        assertIds(mIndex.search("tolkien dune", 10));
+    }
+
+    public void testAddBooks_replacesBookWithSameVolumeId() {
+        mIndex.addBooks(Collections.singletonList(book("1", "Old title", "Author", null)));
+        mIndex.addBooks(Collections.singletonList(book("1", "New title", "Author", null)));
+
+        assertEquals(1, mIndex.size());
+        assertIds(mIndex.search("old", 10));
+        ArrayList<Book> found = mIndex.search("new", 10);
+        assertIds(found, "1");
+        assertEquals("New title", found.get(0).getTitle());
+        assertEquals(Collections.singletonList("Author"), found.get(0).getAuthors());
+    }
+
+    public void testAddBooks_skipsBooksWithoutVolumeId() {
+        mIndex.addBooks(Collections.singletonList(book(null, "Anonymous", "Author", null)));
+
+        assertEquals(0, mIndex.size());
+    }
+
+    public void testAddBooks_removesOldestBeyondLimit() throws InterruptedException {
+        for (int i = 0; i < MAX_BOOKS + 1; i++) {
+            mIndex.addBooks(Collections.singletonList(book("" + i, "Book " + i, "Author", null)));
+            // The books are ordered by the time they were fetched.
+            Thread.sleep(2);
+        }
+
+        assertEquals(MAX_BOOKS, mIndex.size());
+        assertIds(mIndex.search("book", 10), "3", "2", "1");
+    }
+
+    public void testSearch_ignoresOperatorsAndPunctuation() {
+        mIndex.addBooks(Collections.singletonList(book("1", "War and Peace", "Leo Tolstoy", null)));
+
+        assertIds(mIndex.search("war AND \"peace", 10), "1");
+        assertIds(mIndex.search("  -*  ", 10));
+    }
+
+    private static Book book(String id, String title, String author, String description) {
+        return new Book(id, title, Collections.singletonList(author), description,
+                "http://books.google.com/books?id=" + id, null);
+    }
+
+    private static void assertIds(List<Book> books, String... ids) {
+        List<String> found = new ArrayList<>();
+        for (Book book : books) {
+            found.add(book.getId());
+        }
+        assertEquals(Arrays.asList(ids), found);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.bookcat.bookcat;
+
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Checks that the streaming {@link BookJsonParser} gives the same books as
+ * {@link BookJsonParser#extractBookList(String)} on recorded responses and that it allocates less.
+ */
+public class BookJsonParserTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "BookJsonParserTest";
+    private static final String[] FIXTURES = {
+            "volumes_small.json", "volumes_medium.json", "volumes_large.json"
+    };
+
+    public void testStreamingParser_matchesTreeParser() throws IOException {
+        for (String fixture : FIXTURES) {
+            ArrayList<Book> expected = BookJsonParser.extractBookList(readFixture(fixture));
+            ArrayList<Book> actual = BookJsonParser.readBookList(openFixture(fixture));
+            assertNotNull(fixture, expected);
+            assertNotNull(fixture, actual);
+            assertEquals(fixture, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(fixture + " book " + i, expected.get(i).toString(),
+                        actual.get(i).toString());
+            }
+        }
+    }
+
+    public void testResponseWithoutItems_givesAnEmptyList() throws IOException {
+        assertEquals(0, BookJsonParser.extractBookList(readFixture("volumes_empty.json")).size());
+        assertEquals(0, BookJsonParser.readBookList(openFixture("volumes_empty.json")).size());
+    }
+
+    public void testInvalidResponse_givesNoList() throws IOException {
+        assertNull(BookJsonParser.extractBookList("[]"));
+        assertNull(BookJsonParser.readBookList(
+                new ByteArrayInputStream("[]".getBytes(Charset.forName("UTF-8")))));
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testStreamingParser_allocatesLessThanTreeParser() throws IOException {
+        String fixture = "volumes_large.json";
+        // Warm up both paths so that class loading is not counted.
+        BookJsonParser.extractBookList(readFixture(fixture));
+        BookJsonParser.readBookList(openFixture(fixture));
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        BookJsonParser.extractBookList(readFixture(fixture));
+        int treeBytes = Debug.getThreadAllocSize();
+        Debug.resetThreadAllocSize();
+        BookJsonParser.readBookList(openFixture(fixture));
+        int streamingBytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        Log.i(LOG_TAG, "Bytes allocated for " + fixture + ": tree " + treeBytes
+                + ", streaming " + streamingBytes);
+        // Some runtimes do not count allocations.
+        if (treeBytes > 0) {
+            assertTrue(streamingBytes < treeBytes);
+        }
+    }
+
+    private InputStream openFixture(String name) throws IOException {
+        return getInstrumentation().getContext().getAssets().open(name);
+    }
+
+    /**
+     * Reads a fixture line by line into a {@link String}, the way responses used to be read
+     */
+    private String readFixture(String name) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(openFixture(name), Charset.forName("UTF-8")));
+        StringBuilder output = new StringBuilder();
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+        reader.close();
+        return output.toString();
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.android.bookcat.bookcat;
+
+import android.os.Parcel;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks that a {@link Book} survives being written to and read from a {@link Parcel}
+ */
+public class BookParcelTest extends TestCase {
+
+    public void testParcelRoundTrip_keepsAllFields() {
+        Book book = new Book("1", "The Hobbit", Arrays.asList("J.R.R. Tolkien", "C. Tolkien"),
+                "A <b>hobbit</b> leaves home", "http://books.google.com/books?id=1",
+                null);
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            book.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            Book restored = Book.CREATOR.createFromParcel(parcel);
+            assertEquals(book.toString(), restored.toString());
+            assertEquals("1", restored.getId());
+            assertEquals(book.getAuthors(), restored.getAuthors());
+            assertNull(restored.getImageUrl());
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.bookcat.bookcat;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.InstrumentationTestCase;
+
+import java.io.File;
+
+/**
+ * Checks the memory level of the {@link ImageCache} and its {@link BitmapPool} with real
+ * bitmaps, on a cache of its own that holds a few of them, including how they are trimmed
+ */
+public class ImageCacheTest extends InstrumentationTestCase {
+
+    private static final int BITMAP_SIZE = 10;
+    private static final int CACHED_BITMAPS = 8;
+
+    private ImageCache mImageCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        File directory = new File(getInstrumentation().getTargetContext().getCacheDir(),
+                "image-cache-test");
+        mImageCache = new ImageCache(CACHED_BITMAPS * newBitmap().getByteCount(),
+                new DiskImageCache(directory, 1024 * 1024));
+    }
+
+    public void testPresenceCheck_doesNotKeepAnImageInMemory() {
+        fillMemoryCache("first");
+        assertTrue(mImageCache.isInMemory("first 0"));
+
+        // The first image is still the least recently used one.
+        mImageCache.putBitmapInMemory("second", newBitmap());
+        assertFalse(mImageCache.isInMemory("first 0"));
+        assertTrue(mImageCache.isInMemory("first 1"));
+        assertTrue(mImageCache.isInMemory("second"));
+    }
+
+    public void testEvictedImage_isOnlyPooledOnceItIsNotShown() {
+        Bitmap shown = newBitmap();
+        mImageCache.retainBitmap(shown);
+        mImageCache.putBitmapInMemory("shown", shown);
+        fillMemoryCache("other");
+        assertFalse(mImageCache.isInMemory("shown"));
+        assertEquals(0, mImageCache.getBitmapPool().size());
+
+        mImageCache.releaseBitmap(shown);
+        assertSame(shown, mImageCache.getBitmapPool().get(newDecodeOptions()));
+    }
+
+    public void testTrim_shrinksTheMemoryCacheAndThePool() {
+        // The first images are evicted to the pool by the next ones.
+        fillMemoryCache("first");
+        fillMemoryCache("second");
+        assertTrue(mImageCache.getBitmapPool().size() > 0);
+
+        mImageCache.trimMemory(25);
+        int keptImages = 0;
+        for (int i = 0; i < CACHED_BITMAPS; i++) {
+            if (mImageCache.isInMemory("second " + i)) {
+                keptImages++;
+            }
+        }
+        assertEquals(CACHED_BITMAPS / 4, keptImages);
+        // The most recent images are kept.
+        assertTrue(mImageCache.isInMemory("second " + (CACHED_BITMAPS - 1)));
+        assertEquals(0, mImageCache.getBitmapPool().size());
+
+        mImageCache.trimMemory(0);
+        assertFalse(mImageCache.isInMemory("second " + (CACHED_BITMAPS - 1)));
+        assertEquals(0, mImageCache.getBitmapPool().size());
+    }
+
+    /**
+     * Puts as many images in the memory cache as it holds
+     */
+    private void fillMemoryCache(String prefix) {
+        for (int i = 0; i < CACHED_BITMAPS; i++) {
+            mImageCache.putBitmapInMemory(prefix + " " + i, newBitmap());
+        }
+    }
+
+    private static Bitmap newBitmap() {
+        return Bitmap.createBitmap(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * Returns the options of the decoding of an image of the size of the bitmaps of the test
+     */
+    private static BitmapFactory.Options newDecodeOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = BITMAP_SIZE;
+        options.outHeight = BITMAP_SIZE;
+        options.inSampleSize = 1;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return options;
+    }
+}
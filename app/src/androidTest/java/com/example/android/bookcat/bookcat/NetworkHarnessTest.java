@@ -0,0 +1,308 @@
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives many searches and the loads of their thumbnails through the {@link SearchFragment} and
+ * {@link DownloadImageTask}, against a {@link StandInServer} playing a fast, a slow and a failing
+ * network. Every search is made of a new text, so that it is not served from the response cache,
+ * and waits until its page is shown. The thumbnails of its results are then loaded a screen at a
+ * time, like the rows of a scroll through them.
+ * The latency percentiles of the searches and the thumbnails and the requests per second served
+ * are written to the log and to a file in the external files directory of the application, so
+ * that the changes of the network paths can be compared run to run.
+ */
+public class NetworkHarnessTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String LOG_TAG = "NetworkHarness";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int ROWS_PER_SCREEN = 8;
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    private StandInServer mServer;
+    private MainActivity mActivity;
+    private SearchFragment mSearchFragment;
+    /**
+     * Makes the texts of the searches and the URLs of the thumbnails of every run new
+     */
+    private final long mRunId = System.currentTimeMillis();
+    private int mCopyCount = 0;
+
+    public NetworkHarnessTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        InputStream inputStream = getInstrumentation().getContext().getAssets()
+                .open("volumes_medium.json");
+        String volumesJson;
+        try {
+            volumesJson = new String(readAll(inputStream), UTF_8);
+        } finally {
+            inputStream.close();
+        }
+        mServer = new StandInServer(volumesJson, makeThumbnail());
+        BookSearchUrl.setBaseUrl(mServer.getBaseUrl());
+        mActivity = getActivity();
+        mSearchFragment = (SearchFragment) mActivity.getSupportFragmentManager()
+                .findFragmentByTag(SearchFragment.TAG);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        BookSearchUrl.setBaseUrl(null);
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testFastNetwork() throws Throwable {
+        Result result = run("fast", 20);
+        assertEquals(0, result.mSearchErrors);
+        assertEquals(0, result.mImageErrors);
+    }
+
+    public void testSlowNetwork() throws Throwable {
+        mServer.setLatencyMillis(300);
+        mServer.setBytesPerSecond(32 * 1024);
+        run("slow", 5);
+    }
+
+    public void testFailingNetwork() throws Throwable {
+        mServer.setLatencyMillis(50);
+        mServer.setErrorRate(0.1);
+        run("failing", 20);
+    }
+
+    /**
+     * Makes the given number of searches and loads the thumbnails of their results, then
+     * reports the latencies and the throughput
+     *
+     * @param scenario the name of the network played by the server
+     * @param searches the number of searches
+     * @return the {@link Result}
+     */
+    private Result run(String scenario, int searches) throws Throwable {
+        Metrics.getInstance().reset();
+        Result result = new Result();
+        long requests = mServer.getRequestCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            final String queryText = "harness " + mRunId + " " + scenario + " " + i;
+            long pages = countOf(Metrics.SEARCH_PAGE);
+            long searchStart = System.nanoTime();
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mSearchFragment.search(queryText);
+                }
+            });
+            waitFor(Metrics.SEARCH_PAGE, pages + 1);
+            result.mSearchNanos.add(System.nanoTime() - searchStart);
+            loadThumbnails(result.mImageNanos);
+        }
+        result.mSeconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        result.mRequests = mServer.getRequestCount() - requests;
+        result.mSearchErrors = Metrics.getInstance().getCount(Metrics.SEARCH_ERRORS);
+        result.mImageErrors = Metrics.getInstance().getCount(Metrics.IMAGE_ERRORS);
+        assertEquals(searches, result.mSearchNanos.size());
+        report(scenario, result);
+        return result;
+    }
+
+    /**
+     * Loads the thumbnails of the books shown, a screen at a time. Every load is a
+     * {@link DownloadImageTask} of its own {@link ImageView}, started and recycled like the ones
+     * of the rows. The rows of the activity load the same thumbnails, so the harness asks for
+     * copies of them under their own URLs, so that none is served from the caches.
+     *
+     * @param imageNanos the list where the latency of every load is added
+     */
+    private void loadThumbnails(List<Long> imageNanos) throws Throwable {
+        final List<String> urls = new ArrayList<>();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (Book book : mSearchFragment.getBooks()) {
+                    String url = book.getImageUrl();
+                    if (url != null && !url.isEmpty()) {
+                        urls.add(url + "?copy=" + mCopyCount++);
+                    }
+                }
+            }
+        });
+        for (int first = 0; first < urls.size(); first += ROWS_PER_SCREEN) {
+            loadScreen(urls.subList(first, Math.min(first + ROWS_PER_SCREEN, urls.size())),
+                    imageNanos);
+        }
+    }
+
+    private void loadScreen(final List<String> urls, List<Long> imageNanos) throws Throwable {
+        final Context context = getInstrumentation().getTargetContext();
+        final ImageCache imageCache = ImageCache.getInstance(context);
+        final ImageView[] imageViews = new ImageView[urls.size()];
+        final DownloadImageTask[] tasks = new DownloadImageTask[urls.size()];
+        final long[] starts = new long[urls.size()];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < urls.size(); i++) {
+                    imageViews[i] = new ImageView(context);
+                    tasks[i] = new DownloadImageTask(new WeakReference<>(imageViews[i]),
+                            imageCache);
+                    DownloadImageTask.bind(imageViews[i], tasks[i]);
+                    starts[i] = System.nanoTime();
+                    tasks[i].start(urls.get(i), ImageLoadExecutor.PRIORITY_VISIBLE);
+                }
+            }
+        });
+        // A task is finished once its image has been shown on the main thread.
+        boolean[] done = new boolean[urls.size()];
+        int remaining = urls.size();
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (remaining > 0) {
+            assertTrue("Timed out loading thumbnails", SystemClock.uptimeMillis() < deadline);
+            for (int i = 0; i < tasks.length; i++) {
+                if (!done[i] && tasks[i].getStatus() == AsyncTask.Status.FINISHED) {
+                    imageNanos.add(System.nanoTime() - starts[i]);
+                    done[i] = true;
+                    remaining--;
+                }
+            }
+            SystemClock.sleep(2);
+        }
+        // Recycle the rows of the screen.
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (ImageView imageView : imageViews) {
+                    DownloadImageTask.cancelPreviousDownload(imageView, null);
+                }
+            }
+        });
+    }
+
+    private void report(String scenario, Result result) throws IOException {
+        String report = "Network: " + scenario + "\n"
+                + "Searches: " + describe(result.mSearchNanos) + ", " + result.mSearchErrors
+                + " errors\n"
+                + "Thumbnails: " + describe(result.mImageNanos) + ", " + result.mImageErrors
+                + " errors\n"
+                + "Server: " + result.mRequests + " requests in "
+                + String.format(Locale.US, "%.1f s, %.1f requests/s", result.mSeconds,
+                result.mRequests / result.mSeconds)
+                + ", " + mServer.getErrorCount() + " answered with an error\n"
+                + Metrics.getInstance().dump();
+        Log.i(LOG_TAG, report);
+
+        Context context = getInstrumentation().getTargetContext();
+        File directory = context.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        File file = new File(directory,
+                "network-" + scenario + "-" + System.currentTimeMillis() + ".txt");
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(report.getBytes(UTF_8));
+        } finally {
+            outputStream.close();
+        }
+        Log.i(LOG_TAG, "Written to " + file.getAbsolutePath());
+    }
+
+    /**
+     * Describes the latencies of a list of operations
+     *
+     * @param nanos the latencies in nanoseconds
+     * @return the count and the 50th, 95th and 99th percentiles in milliseconds
+     */
+    private static String describe(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        return sorted.size() + " in p50 " + percentileMillis(sorted, 50) + " ms, p95 "
+                + percentileMillis(sorted, 95) + " ms, p99 " + percentileMillis(sorted, 99)
+                + " ms";
+    }
+
+    /**
+     * Returns a percentile of sorted latencies by the nearest rank
+     */
+    private static long percentileMillis(List<Long> sortedNanos, double percentile) {
+        if (sortedNanos.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sortedNanos.size());
+        return TimeUnit.NANOSECONDS.toMillis(sortedNanos.get(Math.max(rank, 1) - 1));
+    }
+
+    private static long countOf(String name) {
+        Metrics.Histogram histogram = Metrics.getInstance().getHistogram(name);
+        return (histogram == null) ? 0 : histogram.getCount();
+    }
+
+    private static void waitFor(String name, long count) {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (countOf(name) < count) {
+            assertTrue("Timed out waiting for " + name, SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(2);
+        }
+    }
+
+    /**
+     * Makes the image served for every thumbnail, about the size of a real one
+     */
+    private static byte[] makeThumbnail() {
+        Bitmap bitmap = Bitmap.createBitmap(128, 192, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(200, 120, 40));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 80, output);
+        bitmap.recycle();
+        return output.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+            output.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * The measurements of a run
+     */
+    private static class Result {
+        final List<Long> mSearchNanos = new ArrayList<>();
+        final List<Long> mImageNanos = new ArrayList<>();
+        long mSearchErrors = 0;
+        long mImageErrors = 0;
+        long mRequests = 0;
+        double mSeconds = 0;
+    }
+}
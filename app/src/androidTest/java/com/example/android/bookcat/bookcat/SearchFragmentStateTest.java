@@ -0,0 +1,64 @@
+package com.example.android.bookcat.bookcat;
+
+import android.content.ComponentCallbacks2;
+import android.os.Bundle;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Checks that the saved state of the {@link SearchFragment} keeps only the first page of a long
+ * list of results, and that the text of the results is only dropped by the trims that ask for it
+ */
+public class SearchFragmentStateTest extends TestCase {
+
+    private static final int PAGES = 10;
+
+    public void testSavedState_keepsTheFirstPageOnly() {
+        ArrayList<Book> books = new ArrayList<>();
+        for (int i = 0; i < PAGES * SearchFragment.PAGE_SIZE; i++) {
+            books.add(new Book("id" + i, "Title " + i, Collections.singletonList("Author"),
+                    "Description " + i, "preview" + i, null));
+        }
+        SearchFragment fragment = new SearchFragment();
+        fragment.showBooks("tolkien", books);
+
+        Bundle state = new Bundle();
+        fragment.onSaveInstanceState(state);
+        ArrayList<Book> savedBooks = state.getParcelableArrayList(SearchFragment.STATE_BOOK_LIST);
+        assertNotNull(savedBooks);
+        assertEquals(SearchFragment.PAGE_SIZE, savedBooks.size());
+        assertEquals("id0", savedBooks.get(0).getId());
+        // The next pages are requested again from the second one.
+        assertEquals(SearchFragment.PAGE_SIZE,
+                state.getInt(SearchFragment.STATE_NEXT_START_INDEX));
+        assertEquals(PAGES * SearchFragment.PAGE_SIZE, fragment.getBooks().size());
+    }
+
+    public void testTrim_keepsTheTextUntilTheAppIsInTheBackground() {
+        ArrayList<Book> books = new ArrayList<>();
+        for (int i = 0; i < SearchFragment.PAGE_SIZE; i++) {
+            Book book = new Book("id" + i, "Title " + i, Collections.singletonList("Author"),
+                    "Description " + i, "preview" + i, null);
+            book.setDisplayText("Author", "Description " + i);
+            books.add(book);
+        }
+        SearchFragment fragment = new SearchFragment();
+        fragment.showBooks("tolkien", books);
+
+        // The user often comes back right after leaving the application.
+        fragment.trimMemory(MemoryBudget.keepPercentFor(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertNotNull(books.get(0).getAuthorLine());
+        assertNotNull(books.get(0).getStyledDescription());
+
+        fragment.trimMemory(MemoryBudget.keepPercentFor(
+                ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertNull(books.get(0).getAuthorLine());
+        assertNull(books.get(0).getStyledDescription());
+        // The text is formatted again when the rows are bound.
+        assertNotNull(books.get(0).getDescription());
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.bookcat.bookcat;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the Google Books API and the thumbnail host, for the tests that need a
+ * network they control. It answers every volume search with a recorded response whose
+ * thumbnails point back to it, with new thumbnail URLs for every response so that none of them
+ * is in the caches of the app yet, and every thumbnail with the same image.
+ * The latency of the responses, the bandwidth of every connection and the share of requests
+ * answered with an error can be changed while it runs. It speaks just enough HTTP/1.1 for
+ * {@link java.net.HttpURLConnection} and keeps the connections alive between requests.
+ */
+class StandInServer implements Closeable {
+
+    private static final String LOG_TAG = "StandInServer";
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String API_PATH = "/books/v1/";
+    private static final String THUMBNAIL_PATH = "/thumbnails/";
+    private static final Pattern THUMBNAIL_LINK =
+            Pattern.compile("\"(smallThumbnail|thumbnail)\"\\s*:\\s*\"[^\"]*\"");
+    /**
+     * The size of the pieces in which a body is written when the bandwidth is limited
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final String mVolumesJson;
+    private final byte[] mThumbnail;
+    private final Random mRandom = new Random(1);
+    private final AtomicInteger mResponseCount = new AtomicInteger();
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+
+    private volatile long mLatencyMillis = 0;
+    private volatile long mBytesPerSecond = 0;
+    private volatile double mErrorRate = 0;
+    private volatile boolean mClosed = false;
+
+    /**
+     * Starts the server on a free port of the loopback interface
+     *
+     * @param volumesJson the recorded response of a volume search
+     * @param thumbnail   the bytes of the image served for every thumbnail
+     * @throws IOException if the server socket can not be opened
+     */
+    StandInServer(String volumesJson, byte[] thumbnail) throws IOException {
+        mVolumesJson = volumesJson;
+        mThumbnail = thumbnail;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Returns the address to give to {@link BookSearchUrl#setBaseUrl(String)}
+     *
+     * @return the base URL of the stand-in Books API
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + API_PATH;
+    }
+
+    /**
+     * Sets the time every response waits before it is sent
+     *
+     * @param latencyMillis the latency in milliseconds
+     */
+    void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Limits the speed at which the body of a response is written on its connection
+     *
+     * @param bytesPerSecond the bandwidth of every connection, or 0 for no limit
+     */
+    void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Sets the share of requests answered with a 503 error
+     *
+     * @param errorRate the share, from 0 to 1
+     */
+    void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Returns the number of requests answered, errors included
+     *
+     * @return the number of requests
+     */
+    long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the number of requests answered with an error on purpose
+     *
+     * @return the number of errors
+     */
+    long getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!mClosed) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                if (!mClosed) {
+                    Log.e(LOG_TAG, "Error while accepting a connection", e);
+                }
+                return;
+            }
+            mSockets.add(socket);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers the requests of a connection until the client closes it
+     */
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            String requestLine = readLine(input);
+            while (requestLine != null && !mClosed) {
+                boolean close = false;
+                String header = readLine(input);
+                while (header != null && !header.isEmpty()) {
+                    if (header.toLowerCase(Locale.US).equals("connection: close")) {
+                        close = true;
+                    }
+                    header = readLine(input);
+                }
+                String[] parts = requestLine.split(" ");
+                respond((parts.length > 1) ? parts[1] : "", output);
+                if (close) {
+                    break;
+                }
+                requestLine = readLine(input);
+            }
+        } catch (IOException e) {
+            // The client dropped the connection, such as for a cancelled download.
+        } finally {
+            mSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error while closing a connection", e);
+            }
+        }
+    }
+
+    private void respond(String target, OutputStream output) throws IOException {
+        mRequestCount.incrementAndGet();
+        sleep(mLatencyMillis);
+        int queryStart = target.indexOf('?');
+        String path = (queryStart < 0) ? target : target.substring(0, queryStart);
+        if (isError()) {
+            mErrorCount.incrementAndGet();
+            send(output, 503, "Service Unavailable", "text/plain",
+                    "Unavailable".getBytes(UTF_8));
+        } else if (path.equals(API_PATH + "volumes")) {
+            send(output, 200, "OK", "application/json; charset=UTF-8",
+                    volumesWithNewThumbnails().getBytes(UTF_8));
+        } else if (path.startsWith(THUMBNAIL_PATH)) {
+            send(output, 200, "OK", "image/jpeg", mThumbnail);
+        } else {
+            send(output, 404, "Not Found", "text/plain", "Not found".getBytes(UTF_8));
+        }
+    }
+
+    private boolean isError() {
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < mErrorRate;
+        }
+    }
+
+    /**
+     * Returns the recorded response with thumbnail URLs that no earlier response has used
+     */
+    private String volumesWithNewThumbnails() {
+        int response = mResponseCount.incrementAndGet();
+        String thumbnailUrl = "http://127.0.0.1:" + mServerSocket.getLocalPort() + THUMBNAIL_PATH
+                + response + "-";
+        Matcher matcher = THUMBNAIL_LINK.matcher(mVolumesJson);
+        StringBuffer json = new StringBuffer(mVolumesJson.length());
+        int link = 0;
+        while (matcher.find()) {
+            String replacement = "\"" + matcher.group(1) + "\": \"" + thumbnailUrl + link
+                    + "-" + matcher.group(1) + ".jpg\"";
+            matcher.appendReplacement(json, Matcher.quoteReplacement(replacement));
+            link++;
+        }
+        matcher.appendTail(json);
+        return json.toString();
+    }
+
+    /**
+     * Writes a response, at no more than the bandwidth of the connection
+     */
+    private void send(OutputStream output, int code, String reason, String contentType,
+                      byte[] body) throws IOException {
+        String headers = "HTTP/1.1 " + code + " " + reason + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "\r\n";
+        output.write(headers.getBytes(US_ASCII));
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, body.length - offset);
+            output.write(body, offset, count);
+            long bytesPerSecond = mBytesPerSecond;
+            if (bytesPerSecond > 0) {
+                output.flush();
+                long dueMillis = (offset + count) * 1000L / bytesPerSecond;
+                sleep(dueMillis - (System.nanoTime() - start) / 1000000);
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads a line of the request, without its line break
+     *
+     * @return the line or null at the end of the stream
+     */
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c = input.read();
+        if (c == -1) {
+            return null;
+        }
+        while (c != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            c = input.read();
+        }
+        return line.toString();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.bookcat.bookcat;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Measures the time from the creation of the {@link MainActivity} until its first frame is drawn
+ * and until its list is drawn with its books, on a cold start and on a restore.
+ * A cold start is an activity started without a saved state, in a process that is already
+ * running, so the start of the process is not included. A restore recreates the activity showing
+ * a page of books while its search fragment is destroyed with it, like after a restart of the
+ * process, so that the books are read back from the saved state.
+ * The results are written to the log and to a file in the external files directory of the
+ * application. Keep the file of a run before a change as the baseline of the runs after it.
+ */
+public class StartupBenchmarkTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String LOG_TAG = "StartupBenchmark";
+    private static final int ROUNDS = 10;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    public StartupBenchmarkTest() {
+        super(MainActivity.class);
+    }
+
+    public void testColdStart() throws Exception {
+        Instrumentation instrumentation = getInstrumentation();
+        // The first round loads the classes and is not counted.
+        startAndFinish(instrumentation);
+        Metrics.getInstance().reset();
+        for (int round = 0; round < ROUNDS; round++) {
+            startAndFinish(instrumentation);
+        }
+        report("cold", Metrics.STARTUP_COLD_FIRST_FRAME, Metrics.STARTUP_COLD_POPULATED);
+    }
+
+    public void testRestore() throws Throwable {
+        Instrumentation instrumentation = getInstrumentation();
+        final ArrayList<Book> books = BookJsonParser.readBookList(
+                instrumentation.getContext().getAssets().open("volumes_large.json"));
+        assertNotNull(books);
+
+        MainActivity activity = getActivity();
+        Instrumentation.ActivityMonitor monitor =
+                instrumentation.addMonitor(MainActivity.class.getName(), null, false);
+        try {
+            // The first round loads the classes and is not counted.
+            activity = recreateWithBooks(activity, books, monitor);
+            waitForCount(Metrics.STARTUP_RESTORE_POPULATED, 1);
+            Metrics.getInstance().reset();
+            for (int round = 1; round <= ROUNDS; round++) {
+                activity = recreateWithBooks(activity, books, monitor);
+                waitForCount(Metrics.STARTUP_RESTORE_POPULATED, round);
+            }
+        } finally {
+            instrumentation.removeMonitor(monitor);
+            activity.finish();
+        }
+        report("restore", Metrics.STARTUP_RESTORE_FIRST_FRAME,
+                Metrics.STARTUP_RESTORE_POPULATED);
+    }
+
+    /**
+     * Starts the activity without a saved state and finishes it once its list is ready
+     */
+    private static void startAndFinish(Instrumentation instrumentation) throws Exception {
+        long populated = countOf(Metrics.STARTUP_COLD_POPULATED);
+        Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClassName(instrumentation.getTargetContext(), MainActivity.class.getName())
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        Activity activity = instrumentation.startActivitySync(intent);
+        waitForCount(Metrics.STARTUP_COLD_POPULATED, populated + 1);
+        activity.finish();
+        instrumentation.waitForIdleSync();
+    }
+
+    /**
+     * Shows the books in the activity and recreates it. The search fragment is not retained, so
+     * the new activity restores the books from the saved state.
+     *
+     * @return the new activity
+     */
+    private MainActivity recreateWithBooks(final MainActivity activity,
+                                           final ArrayList<Book> books,
+                                           Instrumentation.ActivityMonitor monitor)
+            throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                SearchFragment fragment = (SearchFragment) activity.getSupportFragmentManager()
+                        .findFragmentByTag(SearchFragment.TAG);
+                fragment.showBooks("tolkien", new ArrayList<>(books));
+                fragment.setRetainInstance(false);
+                activity.recreate();
+            }
+        });
+        MainActivity recreated = (MainActivity) monitor.waitForActivityWithTimeout(
+                TIMEOUT_MILLIS);
+        assertNotNull("The activity was not recreated", recreated);
+        return recreated;
+    }
+
+    private static long countOf(String name) {
+        Metrics.Histogram histogram = Metrics.getInstance().getHistogram(name);
+        return (histogram == null) ? 0 : histogram.getCount();
+    }
+
+    private static void waitForCount(String name, long count) {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (countOf(name) < count) {
+            assertTrue("Timed out waiting for " + name, SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(10);
+        }
+    }
+
+    private void report(String kind, String firstFrame, String populated) throws IOException {
+        Metrics metrics = Metrics.getInstance();
+        String report = firstFrame + ": " + metrics.getHistogram(firstFrame) + "\n"
+                + populated + ": " + metrics.getHistogram(populated) + "\n";
+        Log.i(LOG_TAG, report);
+
+        Context context = getInstrumentation().getTargetContext();
+        File directory = context.getExternalFilesDir(null);
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        File file = new File(directory,
+                "startup-" + kind + "-" + System.currentTimeMillis() + ".txt");
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(report.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            outputStream.close();
+        }
+        Log.i(LOG_TAG, "Written to " + file.getAbsolutePath());
+    }
+}
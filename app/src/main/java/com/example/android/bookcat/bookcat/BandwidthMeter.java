@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the throughput of the connection from the downloads of the thumbnails.
+ * A download is timed from its request to its last byte, so the estimate includes the latency
+ * of the connection, which is what decides how long the next thumbnail takes. Recent downloads
+ * weigh more than old ones, so the estimate follows a connection that changes.
+ * All the methods are thread safe.
+ */
+public class BandwidthMeter {
+
+    /**
+     * The weight of the newest download in the estimate
+     */
+    private static final double SAMPLE_WEIGHT = 0.25;
+
+    private static final BandwidthMeter sInstance = new BandwidthMeter();
+
+    /**
+     * The estimate, or a negative value before the first download
+     */
+    private double mBytesPerSecond = -1;
+    private long mSampleCount = 0;
+
+    /**
+     * Returns the meter shared by all the downloads
+     *
+     * @return the shared {@link BandwidthMeter}
+     */
+    public static BandwidthMeter getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records a completed download
+     *
+     * @param bytes the number of bytes downloaded
+     * @param nanos the time from the request to the last byte in nanoseconds
+     */
+    public synchronized void record(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        double bytesPerSecond = bytes * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        mBytesPerSecond = (mSampleCount == 0) ? bytesPerSecond
+                : SAMPLE_WEIGHT * bytesPerSecond + (1 - SAMPLE_WEIGHT) * mBytesPerSecond;
+        mSampleCount++;
+    }
+
+    /**
+     * Returns the estimated throughput
+     *
+     * @return the throughput in bytes per second, or -1 if nothing has been downloaded yet
+     */
+    public synchronized long getBytesPerSecond() {
+        return (mSampleCount == 0) ? -1 : (long) mBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        long bytesPerSecond = getBytesPerSecond();
+        return (bytesPerSecond < 0) ? "unknown" : (bytesPerSecond / 1024) + " KB/s";
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Decodes images at the size they are shown instead of their full size.
+ * The bounds of the image are read first to pick a sample size, and the memory of a pooled
+ * {@link Bitmap} is reused for the pixels when possible.
+ */
+public final class BitmapDecoder {
+
+    private static final String LOG_TAG = "BitmapDecoder";
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decodes an image so that it is no smaller than the requested size
+     *
+     * @param data            the bytes of the encoded image
+     * @param requestedWidth  the width of the view that shows the image, or 0 if unknown
+     * @param requestedHeight the height of the view that shows the image, or 0 if unknown
+     * @param config          the pixel format of the decoded image, for example
+     *                        {@link Bitmap.Config#RGB_565} to use half the memory of
+     *                        {@link Bitmap.Config#ARGB_8888} for opaque images
+     * @param bitmapPool      the {@link BitmapPool} from where memory is reused, or null
+     * @return the decoded {@link Bitmap} or null if the data is not a valid image
+     */
+    public static Bitmap decode(byte[] data, int requestedWidth, int requestedHeight,
+                                Bitmap.Config config, BitmapPool bitmapPool) {
+        // Read only the size of the image.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                requestedWidth, requestedHeight);
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        if (bitmapPool != null) {
+            options.inBitmap = bitmapPool.get(options);
+        }
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused, decode into new memory instead.
+            Log.w(LOG_TAG, "Unable to reuse bitmap", e);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Calculates the largest power of two sample size that keeps the image at least as large as
+     * the requested size. A requested dimension of 0 is not taken into account.
+     *
+     * @param width           the width of the encoded image
+     * @param height          the height of the encoded image
+     * @param requestedWidth  the width of the view that shows the image, or 0 if unknown
+     * @param requestedHeight the height of the view that shows the image, or 0 if unknown
+     * @return the sample size to be used for decoding
+     */
+    static int calculateInSampleSize(int width, int height, int requestedWidth,
+                                     int requestedHeight) {
+        int sampleSize = 1;
+        if (requestedWidth <= 0 && requestedHeight <= 0) {
+            return sampleSize;
+        }
+        while (fits(width / (sampleSize * 2), requestedWidth)
+                && fits(height / (sampleSize * 2), requestedHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Checks whether a sampled dimension is still at least as large as the requested one
+     *
+     * @param sampled   the sampled dimension
+     * @param requested the requested dimension, or 0 if any dimension fits
+     * @return true if the sampled dimension is large enough
+     */
+    private static boolean fits(int sampled, int requested) {
+        return sampled > 0 && sampled >= requested;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps {@link Bitmap} objects that are no longer shown or cached, so that their memory can be
+ * reused by {@link BitmapFactory.Options#inBitmap} instead of allocating a new one.
+ * Only bitmaps that are not referenced anywhere else may be put in the pool.
+ */
+public class BitmapPool {
+
+    /**
+     * The pooled bitmaps, oldest first
+     */
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    /**
+     * The maximum total size of the pooled bitmaps in bytes
+     */
+    private final long mMaxSize;
+    private long mSize = 0;
+
+    /**
+     * Public constructor for the class
+     *
+     * @param maxSize the maximum total size of the pooled bitmaps in bytes
+     */
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Adds a bitmap that is no longer used to the pool
+     *
+     * @param bitmap the unused {@link Bitmap}
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mSize += sizeOf(bitmap);
+        // Drop the oldest bitmaps if the pool is over its size.
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Drops the oldest bitmaps until the pool is not over the given size. The pool fills up to
+     * its maximum size again afterwards.
+     *
+     * @param size the size to trim to in bytes
+     */
+    public synchronized void trimToSize(long size) {
+        while (mSize > size && !mBitmaps.isEmpty()) {
+            mSize -= sizeOf(mBitmaps.removeFirst());
+        }
+    }
+
+    /**
+     * Takes a bitmap out of the pool that can hold the image described by the given options
+     *
+     * @param options the {@link BitmapFactory.Options} of the decoding, with the size of the
+     *                image and the sample size already set
+     * @return a reusable {@link Bitmap} or null if there is none
+     */
+    public synchronized Bitmap get(BitmapFactory.Options options) {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next();
+            if (candidate.isRecycled()) {
+                mSize -= sizeOf(candidate);
+                iterator.remove();
+            } else if (canUseForInBitmap(candidate, options)) {
+                mSize -= sizeOf(candidate);
+                iterator.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes every bitmap from the pool
+     */
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the current total size of the pooled bitmaps
+     *
+     * @return the size in bytes
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the maximum total size of the pooled bitmaps
+     *
+     * @return the size in bytes
+     */
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Checks whether a bitmap can be reused for decoding with the given options.
+     * From KitKat any bitmap that is large enough can be reused. Before that the image must have
+     * exactly the same size and must not be sampled.
+     *
+     * @param candidate the pooled {@link Bitmap}
+     * @param options   the {@link BitmapFactory.Options} of the decoding
+     * @return true if the bitmap can be reused
+     */
+    private static boolean canUseForInBitmap(Bitmap candidate, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int width = (options.outWidth + sampleSize - 1) / sampleSize;
+            int height = (options.outHeight + sampleSize - 1) / sampleSize;
+            int byteCount = width * height * bytesPerPixel(options.inPreferredConfig);
+            return candidate.getConfig() == options.inPreferredConfig
+                    && byteCount <= candidate.getAllocationByteCount();
+        }
+        return sampleSize == 1
+                && candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+
+    /**
+     * Returns the number of bytes used by a pixel in the given format
+     *
+     * @param config the {@link Bitmap.Config}
+     * @return the bytes per pixel
+     */
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    /**
+     * Returns the memory held by a bitmap
+     *
+     * @param bitmap the {@link Bitmap}
+     * @return the size in bytes
+     */
+    private static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
@@ -15,98 +15,195 @@
  */
 package com.example.android.bookcat.bookcat;
 
-import java.util.ArrayList;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
- * Stores information about a book
+ * Stores information about a book. A book can not be changed once it is created.
+ * Books are kept compact, since paging and caching can keep thousands of them in memory: the
+ * names of the authors are shared by all the books through an interning pool, and the common
+ * case of a single author needs no list object at all.
+ * A book is {@link Parcelable} so that search results can be saved in a
+ * {@link android.os.Bundle} without keeping the JSON they were parsed from.
  */
-public class Book {
+public final class Book implements Parcelable {
 
-    private String mTitle;
-    private ArrayList<String> mAuthors;
-    private String mDescription;
-    private String mPreviewUrl;
-    private String mImageUrl;
+    /**
+     * Creates {@link Book} objects from a {@link Parcel}
+     */
+    public static final Parcelable.Creator<Book> CREATOR = new Parcelable.Creator<Book>() {
+        @Override
+        public Book createFromParcel(Parcel source) {
+            return new Book(source);
+        }
+
+        @Override
+        public Book[] newArray(int size) {
+            return new Book[size];
+        }
+    };
+
+    /**
+     * The pool of author names shared by all the books. Names are only kept while a book uses
+     * them.
+     */
+    private static final Map<String, WeakReference<String>> sAuthorPool = new WeakHashMap<>();
+
+    private final String mId;
+    private final String mTitle;
+    /**
+     * The first author or null if there are none, and the rest of the authors or null if there
+     * is only one
+     */
+    private final String mFirstAuthor;
+    private final String[] mOtherAuthors;
+    private final String mDescription;
+    private final String mPreviewUrl;
+    private final String mImageUrl;
+    /**
+     * A sharper thumbnail than the one of {@link #mImageUrl}, or null if there is none
+     */
+    private final String mLargeImageUrl;
+    /**
+     * The author line and the styled description shown in the list. They are derived from the
+     * fields above and computed once, off the main thread, by
+     * {@link BookAdapter#prepareDisplayText(List)}.
+     */
+    private volatile String mAuthorLine = null;
+    private volatile CharSequence mStyledDescription = null;
 
     /**
      * Public constructor for the class
+     * @param id the id of the volume in the Google Books API, or null if it is not known
      * @param title the title of the new book
      * @param authors a list of the authors of the book
      * @param description a description of the book
      * @param previewUrl a url to the preview website for the book
      * @param imageUrl a url to a thumbnail image for the book
      */
-    public Book(String title, ArrayList<String> authors, String description, String previewUrl,
-                String imageUrl) {
-        this.setTitle(title);
-        this.setAuthors(authors);
-        this.setDescription(description);
-        this.setPreviewUrl(previewUrl);
-        this.setImageUrl(imageUrl);
+    public Book(String id, String title, List<String> authors, String description,
+                String previewUrl, String imageUrl) {
+        this(id, title, authors, description, previewUrl, imageUrl, null);
     }
 
     /**
-     * Returns the title of the book
-     * @return the book's title
+     * Public constructor for the class, for a book whose thumbnail comes in two sizes
+     * @param id the id of the volume in the Google Books API, or null if it is not known
+     * @param title the title of the new book
+     * @param authors a list of the authors of the book
+     * @param description a description of the book
+     * @param previewUrl a url to the preview website for the book
+     * @param imageUrl a url to the smallest thumbnail image for the book
+     * @param largeImageUrl a url to a larger thumbnail image for the book, or null
      */
-    public String getTitle() {
-        return mTitle;
+    public Book(String id, String title, List<String> authors, String description,
+                String previewUrl, String imageUrl, String largeImageUrl) {
+        mId = id;
+        mTitle = title;
+        int authorCount = (authors == null) ? 0 : authors.size();
+        mFirstAuthor = (authorCount > 0) ? internAuthor(authors.get(0)) : null;
+        if (authorCount > 1) {
+            mOtherAuthors = new String[authorCount - 1];
+            for (int i = 1; i < authorCount; i++) {
+                mOtherAuthors[i - 1] = internAuthor(authors.get(i));
+            }
+        } else {
+            mOtherAuthors = null;
+        }
+        mDescription = description;
+        mPreviewUrl = previewUrl;
+        mImageUrl = imageUrl;
+        mLargeImageUrl = largeImageUrl;
     }
 
     /**
-     * Sets the title of the book
-     * @param title the new title
+     * Constructor that reads a book written by {@link #writeToParcel(Parcel, int)}
+     * @param source the {@link Parcel} to read from
      */
-    public void setTitle(String title) {
-        this.mTitle = title;
+    private Book(Parcel source) {
+        this(source.readString(), source.readString(), source.createStringArrayList(),
+                source.readString(), source.readString(), source.readString(),
+                source.readString());
     }
 
     /**
-     * Returns a list with the authors of the book
-     * @return the list of authors
+     * Returns the shared instance of an author name
+     * @param author the name
+     * @return an equal {@link String} that may be shared with other books
      */
-    public ArrayList<String> getAuthors() {
-        return mAuthors;
+    private static String internAuthor(String author) {
+        synchronized (sAuthorPool) {
+            WeakReference<String> reference = sAuthorPool.get(author);
+            String shared = (reference != null) ? reference.get() : null;
+            if (shared == null) {
+                sAuthorPool.put(author, new WeakReference<>(author));
+                shared = author;
+            }
+            return shared;
+        }
     }
 
     /**
-     * Sets the authors of the book
-     * @param authors a list of the new authors
+     * Returns the id of the volume, which identifies the book across searches and pages
+     * @return the volume id or null if it is not known
      */
-    public void setAuthors(ArrayList<String> authors) {
-        this.mAuthors = authors;
+    public String getId() {
+        return mId;
     }
 
     /**
-     * Returns a description for the book
-     * @return the description for the book
+     * Returns the title of the book
+     * @return the book's title
      */
-    public String getDescription() {
-        return mDescription;
+    public String getTitle() {
+        return mTitle;
     }
 
     /**
-     * Sets the description text for the book
-     * @param description the new description
+     * Returns a list with the authors of the book. The list can not be changed.
+     * @return the list of authors
      */
-    public void setDescription(String description) {
-        this.mDescription = description;
+    public List<String> getAuthors() {
+        if (mFirstAuthor == null) {
+            return Collections.emptyList();
+        }
+        if (mOtherAuthors == null) {
+            return Collections.singletonList(mFirstAuthor);
+        }
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return (index == 0) ? mFirstAuthor : mOtherAuthors[index - 1];
+            }
+
+            @Override
+            public int size() {
+                return mOtherAuthors.length + 1;
+            }
+        };
     }
 
     /**
-     * Returns the preview URL for the book
-     * @return the preview URL
+     * Returns a description for the book
+     * @return the description for the book
      */
-    public String getPreviewUrl() {
-        return mPreviewUrl;
+    public String getDescription() {
+        return mDescription;
     }
 
     /**
-     * Sets the preview url of the book
-     * @param previewUrl the new preview url
+     * Returns the preview URL for the book
+     * @return the preview URL
      */
-    public void setPreviewUrl(String previewUrl) {
-        this.mPreviewUrl = previewUrl;
+    public String getPreviewUrl() {
+        return mPreviewUrl;
     }
 
     /**
@@ -118,21 +215,80 @@ public class Book {
     }
 
     /**
-     * Sets the thumbnail url of the book
-     * @param imageUrl the new thumbnail url
+     * Returns the URL of a sharper thumbnail for the book, worth downloading when the thumbnail
+     * is shown large enough and the connection is fast enough
+     * @return the URL or null if there is only one thumbnail
+     */
+    public String getLargeImageUrl() {
+        return mLargeImageUrl;
+    }
+
+    /**
+     * Returns the authors formatted as one line
+     * @return the author line or null if it has not been computed
      */
-    public void setImageUrl(String imageUrl) {
-        this.mImageUrl = imageUrl;
+    public String getAuthorLine() {
+        return mAuthorLine;
+    }
+
+    /**
+     * Returns the description with its HTML styling applied
+     * @return the styled description or null if it has not been computed or there is no
+     * description
+     */
+    public CharSequence getStyledDescription() {
+        return mStyledDescription;
+    }
+
+    /**
+     * Sets the text shown in the list for the book. The text is derived from the other fields,
+     * so setting it does not change the book.
+     * @param authorLine the authors formatted as one line
+     * @param styledDescription the description with its HTML styling applied
+     */
+    public void setDisplayText(String authorLine, CharSequence styledDescription) {
+        this.mStyledDescription = styledDescription;
+        this.mAuthorLine = authorLine;
+    }
+
+    /**
+     * Formats a {@link List} of {@link String} objects as one string.
+     * The different elements are separated by commas.
+     * @param authorsListArr is the input {@link List} of {@link String} objects.
+     * @return the formatted String
+     */
+    public static String formatAuthorList(List<String> authorsListArr) {
+        String authList = authorsListArr.toString();
+        authList = authList.substring(1,authList.length() - 1);
+        return authList;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mId);
+        dest.writeString(mTitle);
+        dest.writeStringList(getAuthors());
+        dest.writeString(mDescription);
+        dest.writeString(mPreviewUrl);
+        dest.writeString(mImageUrl);
+        dest.writeString(mLargeImageUrl);
     }
 
     @Override
     public String toString() {
-        String bookString;
-        bookString = "Title: " + this.getTitle() + "\n";
-        bookString += "Authors: " + this.getAuthors() + "\n";
-        bookString += "Description: " + this.getDescription() + "\n";
-        bookString += "Preview URL: " + this.getPreviewUrl() + "\n";
-        bookString += "Image URL: " + this.getImageUrl();
-        return bookString;
+        return new StringBuilder()
+                .append("Id: ").append(mId).append('\n')
+                .append("Title: ").append(mTitle).append('\n')
+                .append("Authors: ").append(getAuthors()).append('\n')
+                .append("Description: ").append(mDescription).append('\n')
+                .append("Preview URL: ").append(mPreviewUrl).append('\n')
+                .append("Image URL: ").append(mImageUrl).append('\n')
+                .append("Large image URL: ").append(mLargeImageUrl)
+                .toString();
     }
 }
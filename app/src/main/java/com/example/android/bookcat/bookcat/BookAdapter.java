@@ -16,74 +16,312 @@
 package com.example.android.bookcat.bookcat;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.text.Html;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
- * An {@link ArrayAdapter} that generates custom {@link View} objects from the contents of an
- * {@link ArrayList} of {@link Book} objects.
+ * A {@link RecyclerView.Adapter} that binds the contents of a list of {@link Book} objects to
+ * cached row views. A new list of results is compared with the current one, so that only the
+ * rows that actually changed are bound again.
  */
-public class BookAdapter extends ArrayAdapter<Book>{
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder> {
+
+    /**
+     * Receives clicks on the rows of the list
+     */
+    public interface OnBookClickListener {
+        /**
+         * Called when a row is clicked
+         * @param book the {@link Book} shown in the row
+         */
+        void onBookClick(Book book);
+    }
+
+    private final Context mContext;
+    /**
+     * The books currently shown
+     */
+    private final ArrayList<Book> mBooks = new ArrayList<>();
+    /**
+     * The cache shared by all the thumbnails of the list
+     */
+    private ImageCache mImageCache;
+    private OnBookClickListener mClickListener;
+    /**
+     * The prefetcher whose running downloads are taken over by the rows, or null
+     */
+    private ThumbnailPrefetcher mPrefetcher = null;
+    /**
+     * Chooses the size of the thumbnails from the speed of the connection
+     */
+    private final ThumbnailChooser mThumbnailChooser = ThumbnailChooser.getInstance();
 
     /**
      * Public constructor for the class
      * @param context the {@link Context} of the activity that creates the adapter.
-     * @param bookList the {@link ArrayList} of {@link Book} objects that will be displayed.
+     * @param bookList the {@link List} of {@link Book} objects that will be displayed.
+     * @param clickListener the {@link OnBookClickListener} that receives clicks on the rows.
      */
-    public BookAdapter(Context context, ArrayList<Book> bookList) {
-        super(context, 0, bookList);
+    public BookAdapter(Context context, List<Book> bookList, OnBookClickListener clickListener) {
+        this(context, bookList, clickListener, ImageCache.getInstance(context));
     }
 
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        View availView = convertView;
-        // If the current view is null inflate a new one from the layout.
-        if (availView == null) {
-            availView = LayoutInflater.from(getContext()).inflate(R.layout.book_view, parent,
-                    false);
+    /**
+     * Constructor for the class with the cache of the thumbnails, for the tests
+     * @param context the {@link Context} of the activity that creates the adapter.
+     * @param bookList the {@link List} of {@link Book} objects that will be displayed.
+     * @param clickListener the {@link OnBookClickListener} that receives clicks on the rows.
+     * @param imageCache the {@link ImageCache} of the thumbnails.
+     */
+    BookAdapter(Context context, List<Book> bookList, OnBookClickListener clickListener,
+                ImageCache imageCache) {
+        mContext = context;
+        mBooks.addAll(bookList);
+        mImageCache = imageCache;
+        mClickListener = clickListener;
+    }
+
+    /**
+     * Sets the prefetcher of the thumbnails of the list
+     * @param prefetcher the {@link ThumbnailPrefetcher} or null
+     */
+    public void setPrefetcher(ThumbnailPrefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
+    /**
+     * Replaces the books shown by the list. Rows of books that are in both lists are kept and
+     * only the differences are applied.
+     * @param newBooks the new {@link List} of {@link Book} objects
+     */
+    public void setBooks(List<Book> newBooks) {
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new BookDiffCallback(mBooks,
+                newBooks));
+        mBooks.clear();
+        mBooks.addAll(newBooks);
+        diffResult.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Adds books after the ones already shown, without binding the existing rows again
+     * @param moreBooks the {@link List} of {@link Book} objects to be added
+     */
+    public void appendBooks(List<Book> moreBooks) {
+        int start = mBooks.size();
+        mBooks.addAll(moreBooks);
+        notifyItemRangeInserted(start, moreBooks.size());
+    }
+
+    /**
+     * Computes the text shown by the rows of the given books. It is meant to run on a background
+     * thread when the results are parsed, so that binding a row only assigns the text.
+     * @param books the {@link List} of {@link Book} objects
+     */
+    public static void prepareDisplayText(List<Book> books) {
+        for (Book book : books) {
+            prepareDisplayText(book);
+        }
+    }
+
+    /**
+     * Drops the text shown by the rows of the given books, to save memory. It is computed again
+     * when their rows are bound.
+     * @param books the {@link List} of {@link Book} objects
+     */
+    public static void releaseDisplayText(List<Book> books) {
+        for (Book book : books) {
+            book.setDisplayText(null, null);
         }
+    }
+
+    /**
+     * Computes the author line and the styled description of a book
+     * @param book the {@link Book}
+     */
+    private static void prepareDisplayText(Book book) {
+        String description = book.getDescription();
+        book.setDisplayText(Book.formatAuthorList(book.getAuthors()),
+                description.isEmpty() ? null : Html.fromHtml(description));
+    }
+
+    /**
+     * Returns the book shown at the given position
+     * @param position the position in the list
+     * @return the {@link Book}
+     */
+    public Book getItem(int position) {
+        return mBooks.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mBooks.size();
+    }
+
+    @Override
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(mContext).inflate(R.layout.book_view, parent, false);
+        return new BookViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(BookViewHolder holder, int position) {
+        long start = System.nanoTime();
         // Get current book that will be displayed.
-        Book currentBook = this.getItem(position);
-        // Find the different views inside the layout.
-        TextView titleText = (TextView) availView.findViewById(R.id.title_text_view);
-        TextView authorsText = (TextView) availView.findViewById(R.id.authors_text_view);
-        TextView descriptionText = (TextView) availView.findViewById(R.id.description_text_view);
-        ImageView thumbImg = (ImageView) availView.findViewById(R.id.book_image_view);
+        Book currentBook = mBooks.get(position);
+        // Books restored from the saved state, or whose text was released to save memory, have
+        // no display text yet.
+        if (currentBook.getAuthorLine() == null) {
+            prepareDisplayText(currentBook);
+        }
         // Set the title text
-        titleText.setText(currentBook.getTitle());
+        holder.titleText.setText(currentBook.getTitle());
         // Set the authors' text
-        authorsText.setText(formatAuthorList(currentBook.getAuthors()));
+        holder.authorsText.setText(currentBook.getAuthorLine());
         // Set the description text if available.
-        if (currentBook.getDescription().isEmpty()) {
-            descriptionText.setText(R.string.no_description);
+        if (currentBook.getStyledDescription() == null) {
+            holder.descriptionText.setText(R.string.no_description);
         } else {
-            descriptionText.setText(Html.fromHtml(currentBook.getDescription()));
+            holder.descriptionText.setText(currentBook.getStyledDescription());
+        }
+        // Set the image source to be used. If the image is already in memory use it directly,
+        // otherwise show the application image until the download finishes.
+        // The sharper thumbnail is preferred when both are in memory. A small one is replaced by
+        // the sharper one when the connection allows.
+        // Any download still running for the previous book of a recycled view is cancelled.
+        // A prefetch of the image that is already running is taken over instead of starting a
+        // second download.
+        ImageView thumbImg = holder.thumbImg;
+        int targetWidth = DownloadImageTask.targetWidthFor(thumbImg);
+        String cachedUrl = currentBook.getLargeImageUrl();
+        Bitmap cachedImage = mImageCache.getBitmapFromMemory(cachedUrl);
+        if (cachedImage == null) {
+            cachedUrl = currentBook.getImageUrl();
+            cachedImage = mImageCache.getBitmapFromMemory(cachedUrl);
+        }
+        if (cachedImage != null) {
+            String upgradeUrl = mThumbnailChooser.chooseUpgradeUrl(currentBook, cachedUrl,
+                    targetWidth);
+            boolean startUpgrade = DownloadImageTask.cancelPreviousDownload(thumbImg, upgradeUrl)
+                    && upgradeUrl != null;
+            DownloadImageTask.showBitmap(thumbImg, cachedImage, mImageCache);
+            if (startUpgrade) {
+                DownloadImageTask.startUpgrade(thumbImg, upgradeUrl, mImageCache);
+            }
+        } else {
+            String imageUrl = mThumbnailChooser.chooseImageUrl(currentBook, targetWidth);
+            if (DownloadImageTask.cancelPreviousDownload(thumbImg, imageUrl)) {
+                DownloadImageTask.showPlaceholder(thumbImg, mImageCache);
+                DownloadImageTask prefetchTask = (mPrefetcher != null && imageUrl != null)
+                        ? mPrefetcher.claim(imageUrl) : null;
+                if (prefetchTask != null) {
+                    prefetchTask.attachTo(thumbImg);
+                    prefetchTask.upgradeWhenShown(currentBook);
+                    DownloadImageTask.bind(thumbImg, prefetchTask);
+                } else {
+                    DownloadImageTask downloadImageTask = new DownloadImageTask(
+                            new WeakReference<>(thumbImg), mImageCache);
+                    downloadImageTask.upgradeWhenShown(currentBook);
+                    DownloadImageTask.bind(thumbImg, downloadImageTask);
+                    downloadImageTask.start(imageUrl, ImageLoadExecutor.PRIORITY_VISIBLE);
+                }
+            }
+        }
+        Metrics.getInstance().recordSince(Metrics.LIST_BIND, start);
+    }
+
+    @Override
+    public void onViewRecycled(BookViewHolder holder) {
+        super.onViewRecycled(holder);
+        // A row that left the screen needs neither its download nor its bitmap any more.
+        DownloadImageTask.cancelPreviousDownload(holder.thumbImg, null);
+        DownloadImageTask.showPlaceholder(holder.thumbImg, mImageCache);
+    }
+
+    /**
+     * Holds the views of a row, so that they are looked up only once per row view
+     */
+    class BookViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView titleText;
+        final TextView authorsText;
+        final TextView descriptionText;
+        final ImageView thumbImg;
+
+        BookViewHolder(View itemView) {
+            super(itemView);
+            // Find the different views inside the layout.
+            titleText = (TextView) itemView.findViewById(R.id.title_text_view);
+            authorsText = (TextView) itemView.findViewById(R.id.authors_text_view);
+            descriptionText = (TextView) itemView.findViewById(R.id.description_text_view);
+            thumbImg = (ImageView) itemView.findViewById(R.id.book_image_view);
+            itemView.setOnClickListener(this);
         }
-        // Set the image source to be used.
-        thumbImg.setImageResource(R.mipmap.book_cat_launcher);
-        DownloadImageTask downloadImageTask = new DownloadImageTask(new WeakReference<>(thumbImg));
-        downloadImageTask.execute(currentBook.getImageUrl());
 
-        return availView;
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mClickListener != null) {
+                mClickListener.onBookClick(mBooks.get(position));
+            }
+        }
     }
 
     /**
-     * Formats an {@link ArrayList} of {@link String} objects as one string.
-     * The different elements are separated by commas.
-     * @param authorsListArr is the input {@link ArrayList} of {@link String} objects.
-     * @return the formatted String
+     * Compares two lists of books for {@link DiffUtil}
      */
-    private String formatAuthorList(ArrayList<String> authorsListArr) {
-        String authList = authorsListArr.toString();
-        authList = authList.substring(1,authList.length() - 1);
-        return authList;
+    private static class BookDiffCallback extends DiffUtil.Callback {
+
+        private final List<Book> mOldBooks;
+        private final List<Book> mNewBooks;
+
+        BookDiffCallback(List<Book> oldBooks, List<Book> newBooks) {
+            mOldBooks = oldBooks;
+            mNewBooks = newBooks;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldBooks.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewBooks.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            Book oldBook = mOldBooks.get(oldItemPosition);
+            Book newBook = mNewBooks.get(newItemPosition);
+            if (oldBook.getId() != null && newBook.getId() != null) {
+                return oldBook.getId().equals(newBook.getId());
+            }
+            // Books of responses stored without ids. The preview link includes the id.
+            return TextUtils.equals(oldBook.getPreviewUrl(), newBook.getPreviewUrl());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Book oldBook = mOldBooks.get(oldItemPosition);
+            Book newBook = mNewBooks.get(newItemPosition);
+            return TextUtils.equals(oldBook.getTitle(), newBook.getTitle())
+                    && oldBook.getAuthors().equals(newBook.getAuthors())
+                    && TextUtils.equals(oldBook.getDescription(), newBook.getDescription())
+                    && TextUtils.equals(oldBook.getImageUrl(), newBook.getImageUrl())
+                    && TextUtils.equals(oldBook.getLargeImageUrl(), newBook.getLargeImageUrl());
+        }
     }
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An on-device full-text index of every book that has been fetched, so that a search can show
+ * matches before the server answers, and at all when there is no connection.
+ * The books are kept in a plain table keyed by their volume id, and their title, authors and
+ * description in an FTS4 table whose rows share the ids of the plain table. A book that is
+ * fetched again replaces its old row. Once the index holds more than its limit, the books that
+ * were fetched the longest ago are removed.
+ * Searches must be made off the main thread. Books are written on a thread of the index.
+ * The page cache of SQLite is given back when the system is low on memory.
+ */
+public class BookIndex extends SQLiteOpenHelper implements MemoryBudget.Trimmable {
+
+    private static final String LOG_TAG = "BookIndex";
+
+    private static final String DATABASE_NAME = "books.db";
+    private static final int DATABASE_VERSION = 2;
+    /**
+     * The largest number of books kept in the index
+     */
+    private static final int MAX_BOOKS = 2000;
+    /**
+     * The largest number of words of a search that are looked up
+     */
+    private static final int MAX_QUERY_TERMS = 8;
+    /**
+     * Separates the authors of a book in a column. It is not a part of any word, so the authors
+     * are indexed as separate words.
+     */
+    private static final String AUTHOR_SEPARATOR = "\n";
+
+    private static final String TABLE_BOOKS = "books";
+    private static final String TABLE_BOOKS_FTS = "books_fts";
+    private static final String COLUMN_ROW_ID = "_id";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHORS = "authors";
+    private static final String COLUMN_DESCRIPTION = "description";
+    private static final String COLUMN_PREVIEW_URL = "preview_url";
+    private static final String COLUMN_IMAGE_URL = "image_url";
+    private static final String COLUMN_LARGE_IMAGE_URL = "large_image_url";
+    private static final String COLUMN_FETCHED_AT = "fetched_at";
+
+    private static BookIndex sInstance = null;
+
+    /**
+     * Writes the books in the order they were fetched, without holding up the searches
+     */
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+    private final int mMaxBooks;
+
+    /**
+     * Returns the single instance of the index, creating it if needed
+     *
+     * @param context any {@link Context} of the application
+     * @return the shared {@link BookIndex}
+     */
+    public static synchronized BookIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookIndex(context.getApplicationContext(), DATABASE_NAME, MAX_BOOKS);
+            MemoryBudget.getInstance(context).register(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor for the class. The database is not opened until the index is first used.
+     *
+     * @param context  the {@link Context} of the application
+     * @param name     the name of the database file
+     * @param maxBooks the largest number of books kept in the index
+     */
+    BookIndex(Context context, String name, int maxBooks) {
+        super(context, name, null, DATABASE_VERSION);
+        mMaxBooks = maxBooks;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ROW_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_AUTHORS + " TEXT, "
+                + COLUMN_DESCRIPTION + " TEXT, "
+                + COLUMN_PREVIEW_URL + " TEXT, "
+                + COLUMN_IMAGE_URL + " TEXT, "
+                + COLUMN_LARGE_IMAGE_URL + " TEXT, "
+                + COLUMN_FETCHED_AT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX books_fetched_at ON " + TABLE_BOOKS
+                + " (" + COLUMN_FETCHED_AT + ")");
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4("
+                + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ", " + COLUMN_DESCRIPTION + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index only holds copies of fetched books, so it is simply rebuilt.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+
+    /**
+     * Adds books to the index on the thread of the index. The list is copied, so the caller may
+     * change it afterwards.
+     *
+     * @param books the fetched books, those without a volume id are skipped
+     */
+    public void addBooksInBackground(List<Book> books) {
+        final List<Book> copy = new ArrayList<>(books);
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                addBooks(copy);
+            }
+        });
+    }
+
+    /**
+     * Adds books to the index, replacing the books with the same volume id, in one transaction
+     *
+     * @param books the fetched books, those without a volume id are skipped
+     */
+    public void addBooks(List<Book> books) {
+        long now = System.currentTimeMillis();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Book book : books) {
+                    if (book.getId() != null) {
+                        addBook(db, book, now);
+                    }
+                }
+                trim(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Error while indexing books", e);
+        }
+    }
+
+    /**
+     * Finds the books whose title, authors or description contain every word of a search. The
+     * words match the start of words, so that a search that is still being typed matches too.
+     *
+     * @param queryText the text of the search
+     * @param limit     the largest number of books returned
+     * @return the matching books, the most recently fetched first, empty if none match or the
+     * index can not be read
+     */
+    public ArrayList<Book> search(String queryText, int limit) {
+        ArrayList<Book> bookList = new ArrayList<>();
+        String match = toMatchExpression(queryText);
+        if (match == null) {
+            return bookList;
+        }
+        long start = System.nanoTime();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery("SELECT "
+                    + COLUMN_VOLUME_ID + ", " + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ", "
+                    + COLUMN_DESCRIPTION + ", " + COLUMN_PREVIEW_URL + ", " + COLUMN_IMAGE_URL
+                    + ", " + COLUMN_LARGE_IMAGE_URL + " FROM " + TABLE_BOOKS
+                    + " WHERE " + COLUMN_ROW_ID + " IN (SELECT docid FROM "
+                    + TABLE_BOOKS_FTS + " WHERE " + TABLE_BOOKS_FTS + " MATCH ?)"
+                    + " ORDER BY " + COLUMN_FETCHED_AT + " DESC, " + COLUMN_ROW_ID
+                    + " LIMIT " + limit,
+                    new String[]{match});
+            while (cursor.moveToNext()) {
+                bookList.add(new Book(cursor.getString(0), cursor.getString(1),
+                        splitAuthors(cursor.getString(2)), cursor.getString(3),
+                        cursor.getString(4), cursor.getString(5), cursor.getString(6)));
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Error while searching the index", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        Metrics.getInstance().recordSince(Metrics.SEARCH_LOCAL, start);
+        return bookList;
+    }
+
+    /**
+     * Returns the number of books in the index
+     *
+     * @return the number of books
+     */
+    public long size() {
+        try {
+            return countBooks(getReadableDatabase());
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Error while counting books", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Releases the pages of the database that SQLite caches in memory. They are read from the
+     * file again by the next search.
+     *
+     * @param keepPercent the share of the memory to keep, from 0 to 100
+     */
+    @Override
+    public void trimMemory(int keepPercent) {
+        if (keepPercent <= 50) {
+            SQLiteDatabase.releaseMemory();
+        }
+    }
+
+    /**
+     * Turns the text of a search into an FTS query that matches rows containing every word.
+     * Every word is quoted, so that words like OR and NOT are not taken for operators, and is a
+     * prefix. The star goes inside the quotes: FTS ignores a star that follows them.
+     *
+     * @param queryText the text of the search
+     * @return the query or null if the text has no words
+     */
+    static String toMatchExpression(String queryText) {
+        if (queryText == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        int terms = 0;
+        for (String word : queryText.split("[^\\p{L}\\p{Nd}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (terms > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(word).append("*\"");
+            if (++terms == MAX_QUERY_TERMS) {
+                break;
+            }
+        }
+        return (terms > 0) ? match.toString() : null;
+    }
+
+    /**
+     * Inserts a book, or replaces the book with the same volume id
+     *
+     * @param db   the database, in a transaction
+     * @param book the {@link Book} to add
+     * @param now  the time it was fetched
+     */
+    private static void addBook(SQLiteDatabase db, Book book, long now) {
+        String authors = joinAuthors(book.getAuthors());
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_VOLUME_ID, book.getId());
+        values.put(COLUMN_TITLE, book.getTitle());
+        values.put(COLUMN_AUTHORS, authors);
+        values.put(COLUMN_DESCRIPTION, book.getDescription());
+        values.put(COLUMN_PREVIEW_URL, book.getPreviewUrl());
+        values.put(COLUMN_IMAGE_URL, book.getImageUrl());
+        values.put(COLUMN_LARGE_IMAGE_URL, book.getLargeImageUrl());
+        values.put(COLUMN_FETCHED_AT, now);
+
+        long rowId = findRowId(db, book.getId());
+        if (rowId == -1) {
+            rowId = db.insert(TABLE_BOOKS, null, values);
+            if (rowId == -1) {
+                return;
+            }
+        } else {
+            db.update(TABLE_BOOKS, values, COLUMN_ROW_ID + " = ?",
+                    new String[]{Long.toString(rowId)});
+            db.delete(TABLE_BOOKS_FTS, "docid = ?", new String[]{Long.toString(rowId)});
+        }
+
+        ContentValues ftsValues = new ContentValues();
+        ftsValues.put("docid", rowId);
+        ftsValues.put(COLUMN_TITLE, book.getTitle());
+        ftsValues.put(COLUMN_AUTHORS, authors);
+        ftsValues.put(COLUMN_DESCRIPTION, book.getDescription());
+        db.insert(TABLE_BOOKS_FTS, null, ftsValues);
+    }
+
+    /**
+     * Returns the row of a book
+     *
+     * @param db       the database
+     * @param volumeId the volume id of the book
+     * @return the row id or -1 if the book is not in the index
+     */
+    private static long findRowId(SQLiteDatabase db, String volumeId) {
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ROW_ID + " FROM " + TABLE_BOOKS
+                + " WHERE " + COLUMN_VOLUME_ID + " = ?", new String[]{volumeId});
+        try {
+            return cursor.moveToNext() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes the books fetched the longest ago once the index holds more than its limit
+     *
+     * @param db the database, in a transaction
+     */
+    private void trim(SQLiteDatabase db) {
+        long excess = countBooks(db) - mMaxBooks;
+        if (excess <= 0) {
+            return;
+        }
+        String oldest = "SELECT " + COLUMN_ROW_ID + " FROM " + TABLE_BOOKS
+                + " ORDER BY " + COLUMN_FETCHED_AT + " LIMIT " + excess;
+        db.execSQL("DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid IN (" + oldest + ")");
+        db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ROW_ID + " IN ("
+                + oldest + ")");
+    }
+
+    private static long countBooks(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement("SELECT COUNT(*) FROM " + TABLE_BOOKS);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static String joinAuthors(List<String> authors) {
+        StringBuilder joined = new StringBuilder();
+        for (String author : authors) {
+            if (joined.length() > 0) {
+                joined.append(AUTHOR_SEPARATOR);
+            }
+            joined.append(author);
+        }
+        return joined.toString();
+    }
+
+    private static List<String> splitAuthors(String authors) {
+        if (authors == null || authors.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(authors.split(AUTHOR_SEPARATOR));
+    }
+}
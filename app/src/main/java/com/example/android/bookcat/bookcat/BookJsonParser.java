@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Reads {@link Book} objects from a volume search response of the Google Books API.
+ * The response is parsed as a stream straight from an {@link InputStream}, one book at a time,
+ * and the fields that a {@link Book} does not need are skipped without being stored.
+ */
+public class BookJsonParser implements Closeable {
+
+    private static final String LOG_TAG = "BookJsonParser";
+
+    private final JsonReader mReader;
+    /**
+     * Whether the reader is positioned inside the array of items
+     */
+    private boolean mInItems = false;
+    private boolean mFinished = false;
+
+    /**
+     * Public constructor for the class
+     *
+     * @param inputStream the {@link InputStream} of the response, encoded as UTF-8
+     */
+    public BookJsonParser(InputStream inputStream) {
+        mReader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Reads all the books of a response. The stream is not closed, so that the caller can still
+     * use it, for example to store the rest of the response.
+     *
+     * @param inputStream the {@link InputStream} of the response, encoded as UTF-8
+     * @return an {@link ArrayList} of {@link Book} objects, empty if the response has no items
+     * such as for a page past the last result, or null if the response is not valid
+     * @throws IOException if reading from the stream fails
+     */
+    @Nullable
+    public static ArrayList<Book> readBookList(InputStream inputStream) throws IOException {
+        BookJsonParser parser = new BookJsonParser(inputStream);
+        try {
+            ArrayList<Book> bookList = new ArrayList<>();
+            Book book = parser.nextBook();
+            while (book != null) {
+                bookList.add(book);
+                book = parser.nextBook();
+            }
+            return bookList;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // The response does not have the expected structure.
+            Log.e(LOG_TAG, "Error while handling JSON", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the next book of the response
+     *
+     * @return the next {@link Book} or null if there are no more books
+     * @throws IOException           if reading from the stream fails
+     * @throws IllegalStateException if the response does not have the expected structure
+     */
+    @Nullable
+    public Book nextBook() throws IOException {
+        if (mFinished) {
+            return null;
+        }
+        if (!mInItems && !moveToItems()) {
+            mFinished = true;
+            return null;
+        }
+        if (!mReader.hasNext()) {
+            mFinished = true;
+            return null;
+        }
+        return readItem();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Skips the top level fields of the response until the start of the array of items
+     *
+     * @return true if the array of items was found
+     * @throws IOException
+     */
+    private boolean moveToItems() throws IOException {
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            if (mReader.nextName().equals("items") && mReader.peek() == JsonToken.BEGIN_ARRAY) {
+                mReader.beginArray();
+                mInItems = true;
+                return true;
+            }
+            mReader.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Reads one element of the array of items
+     *
+     * @return the {@link Book} described by the element
+     * @throws IOException
+     */
+    private Book readItem() throws IOException {
+        String id = null;
+        String title = null;
+        ArrayList<String> authorList = new ArrayList<>();
+        String previewUrl = null;
+        String[] imageUrls = null;
+        String volumeDescription = "";
+        String textSnippet = null;
+
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if (name.equals("id") && mReader.peek() == JsonToken.STRING) {
+                id = mReader.nextString();
+            } else if (name.equals("volumeInfo") && mReader.peek() == JsonToken.BEGIN_OBJECT) {
+                mReader.beginObject();
+                while (mReader.hasNext()) {
+                    String field = mReader.nextName();
+                    if (mReader.peek() == JsonToken.NULL) {
+                        mReader.skipValue();
+                    } else if (field.equals("title")) {
+                        title = mReader.nextString();
+                    } else if (field.equals("authors")) {
+                        readAuthors(authorList);
+                    } else if (field.equals("previewLink")) {
+                        previewUrl = mReader.nextString();
+                    } else if (field.equals("imageLinks")) {
+                        imageUrls = readThumbnails();
+                    } else if (field.equals("description")) {
+                        volumeDescription = mReader.nextString();
+                    } else {
+                        mReader.skipValue();
+                    }
+                }
+                mReader.endObject();
+            } else if (name.equals("searchInfo") && mReader.peek() == JsonToken.BEGIN_OBJECT) {
+                textSnippet = readTextSnippet();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+
+        if (title == null || previewUrl == null) {
+            throw new IllegalStateException("Book without title or preview link");
+        }
+        // The snippet of the search is preferred over the description of the volume.
+        String description = (textSnippet != null) ? textSnippet : volumeDescription;
+        return new Book(id, title, authorList, description, previewUrl,
+                (imageUrls != null) ? imageUrls[0] : null,
+                (imageUrls != null) ? imageUrls[1] : null);
+    }
+
+    /**
+     * Reads the array of authors of a volume
+     *
+     * @param authorList the {@link ArrayList} where the authors are added
+     * @throws IOException
+     */
+    private void readAuthors(ArrayList<String> authorList) throws IOException {
+        if (mReader.peek() != JsonToken.BEGIN_ARRAY) {
+            mReader.skipValue();
+            return;
+        }
+        mReader.beginArray();
+        while (mReader.hasNext()) {
+            authorList.add(mReader.nextString());
+        }
+        mReader.endArray();
+    }
+
+    /**
+     * Reads the URLs of the small thumbnail and of the larger thumbnail from the image links of
+     * a volume
+     *
+     * @return the URL of the small thumbnail, or an empty {@link String} if there is none, and
+     * the URL of the larger one or null, or null if there are no image links
+     * @throws IOException
+     */
+    private String[] readThumbnails() throws IOException {
+        if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+            mReader.skipValue();
+            return null;
+        }
+        String smallThumbnail = "";
+        String thumbnail = null;
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if (mReader.peek() == JsonToken.NULL) {
+                mReader.skipValue();
+            } else if (name.equals("smallThumbnail")) {
+                smallThumbnail = mReader.nextString();
+            } else if (name.equals("thumbnail")) {
+                thumbnail = mReader.nextString();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        return new String[]{smallThumbnail, thumbnail};
+    }
+
+    /**
+     * Reads the text snippet from the search information of an item
+     *
+     * @return the snippet or an empty {@link String} if there is none
+     * @throws IOException
+     */
+    private String readTextSnippet() throws IOException {
+        String textSnippet = "";
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            if (mReader.nextName().equals("textSnippet") && mReader.peek() != JsonToken.NULL) {
+                textSnippet = mReader.nextString();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        return textSnippet;
+    }
+
+    /**
+     * Extracts an {@link ArrayList} of {@link Book} objects from a whole response held in memory,
+     * by building a {@link JSONObject} tree first. Kept as the reference for the streaming parser.
+     *
+     * @param jsonResponse the response as a {@link String}
+     * @return an {@link ArrayList} of {@link Book} objects, empty if the response has no items,
+     * or null if the response is not valid
+     */
+    @Nullable
+    public static ArrayList<Book> extractBookList(String jsonResponse) {
+        ArrayList<Book> bookList = new ArrayList<>();
+        try {
+            // Create a JSONObject from the previously obtained response.
+            JSONObject jsonRoot;
+            if (jsonResponse != null) {
+                jsonRoot = new JSONObject(jsonResponse);
+            } else {
+                // If no response available return early
+                return null;
+            }
+            // Create a JSONArray from the that includes all the books. The API leaves it out
+            // when nothing matches and for a page past the last result.
+            JSONArray bookListJSON = jsonRoot.optJSONArray("items");
+            // For each element of the array get the details needed.
+            if (bookListJSON != null) {
+                for (int i = 0; i < bookListJSON.length(); i++) {
+                    JSONObject currentBookJSON = bookListJSON.getJSONObject(i);
+                    // Get the id of the volume
+                    String id = currentBookJSON.optString("id", null);
+                    JSONObject volumeInfo = currentBookJSON.getJSONObject("volumeInfo");
+                    // Get the title of the book
+                    String title = volumeInfo.getString("title");
+                    // Get the array of authors.
+                    JSONArray authorListJSON = volumeInfo.optJSONArray("authors");
+                    ArrayList<String> authorList = new ArrayList<>();
+                    if (authorListJSON != null) {
+                        for (int j = 0; j < authorListJSON.length(); j++) {
+                            String author = authorListJSON.getString(j);
+                            authorList.add(author);
+                        }
+                    }
+                    // Get the preview URL for the book.
+                    String previewUrl = volumeInfo.getString("previewLink");
+                    // Get the URLs of the thumbnail images.
+                    JSONObject imageLinks = volumeInfo.optJSONObject("imageLinks");
+                    String imageUrl;
+                    String largeImageUrl;
+                    if (imageLinks != null) {
+                        imageUrl = imageLinks.optString("smallThumbnail");
+                        largeImageUrl = imageLinks.optString("thumbnail", null);
+                    } else {
+                        imageUrl = null;
+                        largeImageUrl = null;
+                    }
+                    //Get the description for the book
+                    JSONObject searchInfo = currentBookJSON.optJSONObject("searchInfo");
+                    String description;
+                    if (searchInfo != null) {
+                        description = searchInfo.optString("textSnippet");
+                    } else {
+                        description = volumeInfo.optString("description");
+                    }
+                    // Add the book in the return ArrayList.
+                    bookList.add(new Book(id, title, authorList, description, previewUrl,
+                            imageUrl, largeImageUrl));
+                }
+            }
+        } catch (JSONException e) {
+            // In case of an exception print a message in the log and return early.
+            Log.e(LOG_TAG, "Error while handling JSON", e);
+            return null;
+        }
+        // Return the array of books.
+        return bookList;
+    }
+}
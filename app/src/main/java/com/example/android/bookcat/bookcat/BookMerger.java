@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges the ranked results of several searches made for the same text into one ranked list,
+ * as each of them arrives. A book found by several searches is listed once.
+ * Books are ordered by the sum of the reciprocal of their rank in every search that found them
+ * (reciprocal rank fusion), so that a book near the top of one search or found by several
+ * searches goes first. Ties keep the order in which the books arrived.
+ */
+public class BookMerger {
+
+    /**
+     * Added to every rank, so that the first few places of a search do not outweigh a book
+     * found by several searches
+     */
+    private static final int RANK_OFFSET = 60;
+
+    /**
+     * The ids of the books that are not merged, because they are already shown
+     */
+    private final Set<String> mExcludedIds = new HashSet<>();
+    /**
+     * The merged books by their volume id, in the order they arrived
+     */
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * Public constructor for the class
+     *
+     * @param excludedBooks the books that are left out of the merged list
+     */
+    public BookMerger(Collection<Book> excludedBooks) {
+        for (Book book : excludedBooks) {
+            if (book.getId() != null) {
+                mExcludedIds.add(book.getId());
+            }
+        }
+    }
+
+    /**
+     * Adds the results of one search
+     *
+     * @param books the books found, the best match first
+     */
+    public void add(List<Book> books) {
+        for (int rank = 0; rank < books.size(); rank++) {
+            Book book = books.get(rank);
+            // A book without an id can not be matched with the others, so it is kept alone.
+            String key = (book.getId() != null) ? book.getId() : "#" + mEntries.size();
+            if (mExcludedIds.contains(key)) {
+                continue;
+            }
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                entry = new Entry(book, mEntries.size());
+                mEntries.put(key, entry);
+            }
+            entry.mScore += 1.0 / (RANK_OFFSET + rank + 1);
+        }
+    }
+
+    /**
+     * Returns the merged books
+     *
+     * @return a new {@link List} of the books, the best match first
+     */
+    public List<Book> getBooks() {
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                int byScore = Double.compare(entry2.mScore, entry1.mScore);
+                return (byScore != 0) ? byScore : entry1.mArrival - entry2.mArrival;
+            }
+        });
+        List<Book> books = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            books.add(entry.mBook);
+        }
+        return books;
+    }
+
+    /**
+     * A merged book with its score
+     */
+    private static class Entry {
+
+        final Book mBook;
+        final int mArrival;
+        double mScore = 0;
+
+        Entry(Book book, int arrival) {
+            mBook = book;
+            mArrival = arrival;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The request of a page of search results. The books are read from the {@link ResponseCache}
+ * while its stored response is fresh, or downloaded through the {@link HttpFetcher} and parsed
+ * while they arrive. Their text is formatted for the rows and they are added to the
+ * {@link BookIndex}, so that every caller sharing the request gets books that are ready to be
+ * shown.
+ * Identical requests in flight are shared through {@link #getCoalescer()}.
+ */
+public class BookSearchRequest implements RequestCoalescer.Request<ArrayList<Book>> {
+
+    private static final String LOG_TAG = "BookSearchRequest";
+
+    private static final RequestCoalescer<ArrayList<Book>> sCoalescer = new RequestCoalescer<>();
+
+    private final Context mContext;
+    private final URL mUrl;
+    private final String mQueryText;
+    private final int mStartIndex;
+    /**
+     * Set by {@link #cancel()}, which is called from another thread, together with the response
+     * being read
+     */
+    private volatile boolean mCancelled = false;
+    private volatile HttpFetcher.Response mResponse = null;
+
+    /**
+     * Returns the coalescer of the searches, whose keys are the keys of the
+     * {@link ResponseCache}
+     *
+     * @return the shared {@link RequestCoalescer}
+     */
+    public static RequestCoalescer<ArrayList<Book>> getCoalescer() {
+        return sCoalescer;
+    }
+
+    /**
+     * Public constructor for the class
+     *
+     * @param context    any {@link Context} of the application
+     * @param url        the {@link URL} of the page
+     * @param queryText  the text of the search
+     * @param startIndex the index of the first book of the page
+     */
+    public BookSearchRequest(Context context, URL url, String queryText, int startIndex) {
+        mContext = context.getApplicationContext();
+        mUrl = url;
+        mQueryText = queryText;
+        mStartIndex = startIndex;
+    }
+
+    @Override
+    public ArrayList<Book> execute() throws IOException {
+        long start = System.nanoTime();
+        ArrayList<Book> bookList = makeHttpRequestForBooks();
+        Metrics metrics = Metrics.getInstance();
+        if (bookList == null) {
+            if (!mCancelled) {
+                metrics.increment(Metrics.SEARCH_ERRORS);
+            }
+            throw new IOException("No books read from " + mUrl);
+        }
+        metrics.recordSince(Metrics.SEARCH_TOTAL, start);
+        // Format the text of the rows here instead of every time a row is bound, and keep the
+        // books for the searches made offline.
+        BookAdapter.prepareDisplayText(bookList);
+        BookIndex.getInstance(mContext).addBooksInBackground(bookList);
+        return bookList;
+    }
+
+    /**
+     * Stops the request. A blocking read of the response is stopped by dropping its connection,
+     * since interrupting the thread does not stop it. It is safe to call from the main thread,
+     * where it only marks the request cancelled and leaves the disconnection to the background.
+     */
+    @Override
+    public void cancel() {
+        mCancelled = true;
+        HttpFetcher.Response response = mResponse;
+        if (response != null) {
+            response.cancel();
+        }
+    }
+
+    /**
+     * Makes a request through the {@link HttpFetcher} for a JSON response that
+     * includes information about book. The response is parsed while it is being read.
+     * A stored response of the same search is used instead while it is fresh, and is
+     * revalidated with a conditional request once it is not.
+     *
+     * @return an {@link ArrayList} of {@link Book} objects or null if the request failed
+     * @throws IOException
+     */
+    @Nullable
+    private ArrayList<Book> makeHttpRequestForBooks() throws IOException {
+        ArrayList<Book> bookList = null;
+
+        if (mUrl == null) {
+            return bookList;
+        }
+
+        // Use the stored response if it is fresh.
+        ResponseCache responseCache = ResponseCache.getInstance(mContext);
+        String cacheKey = ResponseCache.keyFor(mQueryText, mStartIndex);
+        ResponseCache.Entry cachedEntry = responseCache.get(cacheKey);
+        if (cachedEntry != null && responseCache.isFresh(cachedEntry)) {
+            bookList = readCachedBooks(responseCache, cachedEntry);
+            if (bookList != null) {
+                Metrics.getInstance().increment(Metrics.SEARCH_CACHED);
+                return bookList;
+            }
+            cachedEntry = null;
+        }
+
+        // Ask the server whether a stale stored response is still valid.
+        Map<String, String> requestHeaders = new HashMap<>();
+        if (cachedEntry != null) {
+            if (cachedEntry.getETag() != null) {
+                requestHeaders.put("If-None-Match", cachedEntry.getETag());
+            }
+            if (cachedEntry.getLastModified() != null) {
+                requestHeaders.put("If-Modified-Since", cachedEntry.getLastModified());
+            }
+        }
+
+        HttpFetcher.Response response = null;
+        InputStream inputStream = null;
+
+        try {
+            // Make the request on a shared connection.
+            response = HttpFetcher.getInstance().get(mUrl, requestHeaders);
+            mResponse = response;
+            if (mCancelled) {
+                // The search was replaced while waiting for the response.
+                response.cancel();
+                return null;
+            }
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedEntry != null) {
+                // The stored response is still valid.
+                responseCache.markRevalidated(cachedEntry);
+                bookList = readCachedBooks(responseCache, cachedEntry);
+            } else if (responseCode == 200) {
+                // If the connection is successful parse the books from the decompressed
+                // body of the response, storing the response at the same time.
+                ResponseCache.CachingInputStream cachingStream =
+                        responseCache.cacheWhileReading(cacheKey, response.getBody(),
+                                response.getHeader("ETag"),
+                                response.getHeader("Last-Modified"));
+                inputStream = cachingStream;
+                long start = System.nanoTime();
+                bookList = BookJsonParser.readBookList(cachingStream);
+                Metrics.getInstance().recordSince(Metrics.SEARCH_PARSE, start);
+                if (bookList != null) {
+                    cachingStream.commit();
+                } else {
+                    cachingStream.abort();
+                }
+            } else {
+                // If an error code is returned, print a message in the log and return early.
+                Log.e(LOG_TAG, "HTTP error " + responseCode);
+                return null;
+            }
+        } catch (IOException e) {
+            // If an exception occurs print a message in the log and return early.
+            // A read stopped by a cancellation also ends here.
+            if (!mCancelled) {
+                Log.e(LOG_TAG, "Error while attempting HTTP connection", e);
+            }
+            return null;
+        } finally {
+            // Release the connection for the next request.
+            mResponse = null;
+            if (response != null) {
+                response.close();
+            }
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+        // Return the obtained books.
+        return bookList;
+    }
+
+    /**
+     * Parses the books of a stored response
+     *
+     * @param responseCache the {@link ResponseCache} where the response is stored
+     * @param entry         the stored {@link ResponseCache.Entry}
+     * @return an {@link ArrayList} of {@link Book} objects or null if it can not be read
+     */
+    @Nullable
+    private ArrayList<Book> readCachedBooks(ResponseCache responseCache,
+                                            ResponseCache.Entry entry) {
+        InputStream inputStream = null;
+        try {
+            inputStream = responseCache.openBody(entry);
+            long start = System.nanoTime();
+            ArrayList<Book> bookList = BookJsonParser.readBookList(inputStream);
+            Metrics.getInstance().recordSince(Metrics.SEARCH_PARSE, start);
+            return bookList;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error while reading stored response", e);
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error while closing stored response", e);
+                }
+            }
+        }
+    }
+}
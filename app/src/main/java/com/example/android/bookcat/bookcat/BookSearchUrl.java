@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.util.Log;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds the URLs of the volume searches of the Google Books API.
+ * The address of the API can be replaced, so that the searches can be sent to a local stand-in
+ * server that plays a slow or failing network.
+ * It only depends on {@link Log} of the Android classes, so that it can also be benchmarked on
+ * the JVM.
+ */
+public final class BookSearchUrl {
+
+    private static final String LOG_TAG = "BookSearchUrl";
+
+    /**
+     * The address of the Google Books API, which the paths of its resources are appended to
+     */
+    public static final String DEFAULT_BASE_URL = "https://www.googleapis.com/books/v1/";
+    private static final String VOLUME_SEARCH_PATH = "volumes?q=";
+    /**
+     * The partial response parameter of the search. Only the fields that a {@link Book} is made
+     * of are requested, instead of the whole volume resources.
+     */
+    private static final String BOOK_SEARCH_FIELDS = "&fields=items(id,volumeInfo(title,authors,"
+            + "description,previewLink,imageLinks(smallThumbnail,thumbnail)),"
+            + "searchInfo/textSnippet)";
+    /**
+     * The keywords that restrict a word of a search to a field of the volumes
+     */
+    private static final String TITLE_KEYWORD = "intitle:";
+    private static final String AUTHOR_KEYWORD = "inauthor:";
+    private static final String ISBN_KEYWORD = "isbn:";
+
+    /**
+     * The address of the API the searches are sent to
+     */
+    private static volatile String sBaseUrl = DEFAULT_BASE_URL;
+
+    private BookSearchUrl() {
+    }
+
+    /**
+     * Sets the address of the Books API that the searches are sent to. The URLs made before are
+     * not changed.
+     *
+     * @param baseUrl the address, ending with a slash, or null for the Google Books API
+     */
+    public static void setBaseUrl(String baseUrl) {
+        sBaseUrl = (baseUrl == null) ? DEFAULT_BASE_URL : baseUrl;
+    }
+
+    /**
+     * Returns the address of the Books API that the searches are sent to
+     *
+     * @return the address, ending with a slash
+     */
+    public static String getBaseUrl() {
+        return sBaseUrl;
+    }
+
+    /**
+     * Generates a {@link URL} for a page of results of the given search text.
+     *
+     * @param queryText  the text of the search
+     * @param startIndex the index of the first book of the page
+     * @param pageSize   the number of books of the page
+     * @return the {@link URL} that is to be used to get book information.
+     */
+    public static URL makeSearchUrl(String queryText, int startIndex, int pageSize) {
+        URL url;
+        // Replace spaces in the search query with %20 to prevent conversion errors.
+        String[] partsOfQueryText = queryText.split(" ");
+        queryText = "";
+        for (String partOfQueryText : partsOfQueryText) {
+            queryText += partOfQueryText + "%20";
+        }
+        // Create the URL. In case of an exception print a message in the log and return early.
+        try {
+            url = new URL(sBaseUrl + VOLUME_SEARCH_PATH + queryText + "&startIndex=" + startIndex
+                    + "&maxResults=" + pageSize + BOOK_SEARCH_FIELDS);
+        } catch (MalformedURLException exception) {
+            Log.e(LOG_TAG, "Error while making URL", exception);
+            return null;
+        }
+        // If all Ok return the generated URL.
+        return url;
+    }
+
+    /**
+     * Splits a search into searches restricted to one field each: one that finds the words in
+     * the titles, one that finds them in the authors and, if the text is an ISBN, one that finds
+     * the book with that ISBN. They are meant to be made at the same time and their results
+     * merged.
+     *
+     * @param queryText the text of the search
+     * @return the texts of the searches, empty if the text has no words
+     */
+    public static List<String> makeFieldQueries(String queryText) {
+        List<String> queries = new ArrayList<>();
+        String trimmed = queryText.trim();
+        if (trimmed.isEmpty()) {
+            return queries;
+        }
+        String[] words = trimmed.split("\\s+");
+        queries.add(restrictWords(TITLE_KEYWORD, words));
+        queries.add(restrictWords(AUTHOR_KEYWORD, words));
+        String isbn = toIsbn(trimmed);
+        if (isbn != null) {
+            queries.add(ISBN_KEYWORD + isbn);
+        }
+        return queries;
+    }
+
+    /**
+     * Reads an ISBN-10 or ISBN-13, with or without hyphens and spaces, whose check digit is
+     * correct
+     *
+     * @param text the text to read
+     * @return the ISBN without separators or null if the text is not an ISBN
+     */
+    static String toIsbn(String text) {
+        String isbn = text.replaceAll("[\\s-]", "").toUpperCase(Locale.US);
+        int sum = 0;
+        if (isbn.matches("\\d{9}[\\dX]")) {
+            for (int i = 0; i < 10; i++) {
+                int digit = (isbn.charAt(i) == 'X') ? 10 : isbn.charAt(i) - '0';
+                sum += (10 - i) * digit;
+            }
+            return (sum % 11 == 0) ? isbn : null;
+        }
+        if (isbn.matches("\\d{13}")) {
+            for (int i = 0; i < 13; i++) {
+                sum += ((i % 2 == 0) ? 1 : 3) * (isbn.charAt(i) - '0');
+            }
+            return (sum % 10 == 0) ? isbn : null;
+        }
+        return null;
+    }
+
+    /**
+     * Restricts every word of a search to a field
+     *
+     * @param keyword the keyword of the field
+     * @param words   the words of the search
+     * @return the text of the restricted search
+     */
+    private static String restrictWords(String keyword, String[] words) {
+        StringBuilder query = new StringBuilder();
+        for (String word : words) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(keyword).append(word);
+        }
+        return query.toString();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the requests to a server that keeps failing, so that they fail at once instead of
+ * waiting for a timeout and retrying.
+ * After a number of failures in a row the circuit opens and every request is refused. Once the
+ * open time has passed, one trial request is let through: the circuit closes if it succeeds and
+ * opens again if it fails.
+ * All the methods are thread safe.
+ */
+public class CircuitBreaker {
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private State mState = State.CLOSED;
+    private int mFailures = 0;
+    private long mOpenedAt = 0;
+
+    /**
+     * Public constructor for the class
+     *
+     * @param failureThreshold the number of failures in a row that open the circuit
+     * @param openMillis       the time for which requests are refused once the circuit opens
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Tells whether a request may be made. While the circuit is half open only one trial is let
+     * through, until its result is recorded. A trial whose result is never recorded, because it
+     * was cancelled, is replaced after the open time.
+     *
+     * @return true if the request may be made
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == State.CLOSED) {
+            return true;
+        }
+        long now = elapsedMillis();
+        if (now - mOpenedAt >= mOpenMillis) {
+            mState = State.HALF_OPEN;
+            mOpenedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a request that succeeded, which closes the circuit
+     */
+    public synchronized void recordSuccess() {
+        mState = State.CLOSED;
+        mFailures = 0;
+    }
+
+    /**
+     * Records a request that failed, which opens the circuit after enough failures in a row or
+     * after a failed trial
+     */
+    public synchronized void recordFailure() {
+        mFailures++;
+        if (mState == State.HALF_OPEN || mFailures >= mFailureThreshold) {
+            mState = State.OPEN;
+            mOpenedAt = elapsedMillis();
+        }
+    }
+
+    /**
+     * Tells whether requests are being refused
+     *
+     * @return true if the circuit is open
+     */
+    public synchronized boolean isOpen() {
+        return mState != State.CLOSED;
+    }
+
+    /**
+     * Returns a monotonic time. It is replaced by the tests.
+     *
+     * @return the time in milliseconds
+     */
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Thrown instead of making a request while the circuit is open
+     */
+    public static class OpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String host) {
+            super("Circuit open for " + host);
+        }
+    }
+}
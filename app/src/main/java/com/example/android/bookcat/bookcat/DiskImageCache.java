@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache that stores the raw bytes of downloaded images as files in a directory.
+ * Entries are evicted in least recently used order once the total size exceeds the limit.
+ */
+public class DiskImageCache {
+
+    private static final String LOG_TAG = "DiskImageCache";
+
+    /**
+     * The directory where the cached files are stored
+     */
+    private final File mDirectory;
+    /**
+     * The maximum total size of the cached files in bytes
+     */
+    private final long mMaxSize;
+    /**
+     * The size of every cached file by file name, kept in access order
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize = 0;
+    private boolean mInitialised = false;
+
+    /**
+     * Public constructor for the class.
+     * The directory is not read until the cache is first used, so this is safe to call from the
+     * main thread.
+     *
+     * @param directory the directory where the cached files are stored
+     * @param maxSize   the maximum total size of the cached files in bytes
+     */
+    public DiskImageCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached bytes for the given URL
+     *
+     * @param url the URL of the image
+     * @return the bytes of the image or null if they are not in the cache
+     */
+    public synchronized byte[] get(String url) {
+        initialise();
+        String fileName = fileNameFor(url);
+        if (mEntries.get(fileName) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, fileName);
+        try {
+            byte[] data = readFile(file);
+            // Keep the access order across restarts of the application.
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error while reading cached image", e);
+            remove(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the bytes of an image in the cache
+     *
+     * @param url  the URL of the image
+     * @param data the bytes of the image
+     */
+    public synchronized void put(String url, byte[] data) {
+        initialise();
+        String fileName = fileNameFor(url);
+        File file = new File(mDirectory, fileName);
+        File tempFile = new File(mDirectory, fileName + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(data);
+            outputStream.close();
+            outputStream = null;
+            // Rename so that a partially written file is never read back.
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error while writing cached image", e);
+            tempFile.delete();
+            return;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error while closing cached image", e);
+                }
+            }
+        }
+        Long previousSize = mEntries.put(fileName, (long) data.length);
+        if (previousSize != null) {
+            mSize -= previousSize;
+        }
+        mSize += data.length;
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Removes every file from the cache
+     */
+    public synchronized void clear() {
+        initialise();
+        trimToSize(0);
+    }
+
+    /**
+     * Returns the current total size of the cached files
+     *
+     * @return the size in bytes
+     */
+    public synchronized long size() {
+        initialise();
+        return mSize;
+    }
+
+    /**
+     * Reads the contents of the cache directory the first time the cache is used.
+     */
+    private void initialise() {
+        if (mInitialised) {
+            return;
+        }
+        mInitialised = true;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create cache directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest files first so that they are the first to be evicted.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else {
+                mEntries.put(file.getName(), file.length());
+                mSize += file.length();
+            }
+        }
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Deletes the least recently used files until the total size is within the given limit
+     *
+     * @param maxSize the size limit in bytes
+     */
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes a single file from the cache
+     *
+     * @param fileName the name of the file
+     */
+    private void remove(String fileName) {
+        Long size = mEntries.remove(fileName);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, fileName).delete();
+    }
+
+    /**
+     * Reads the whole contents of a file
+     *
+     * @param file the {@link File} to be read
+     * @return the contents of the file
+     * @throws IOException
+     */
+    private static byte[] readFile(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int count = inputStream.read(buffer);
+            while (count != -1) {
+                output.write(buffer, 0, count);
+                count = inputStream.read(buffer);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Generates a file name that is safe to use for the given URL
+     *
+     * @param url the URL of the image
+     * @return a hex encoded hash of the URL
+     */
+    private static String fileNameFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder fileName = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                fileName.append(Character.forDigit((b >> 4) & 0xF, 16));
+                fileName.append(Character.forDigit(b & 0xF, 16));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+}
@@ -16,67 +16,369 @@
 package com.example.android.bookcat.bookcat;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.ImageView;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.Callable;
 
 /**
- * Downloads an image to be shown in an {@link ImageView}
+ * Downloads an image to be shown in an {@link ImageView}.
+ * The image is looked up in the disk level of the {@link ImageCache} before it is downloaded. It
+ * is decoded at the size of the {@link ImageView} and the result is stored in the memory level.
+ * Every task is bound to its {@link ImageView} as a tag, so that rebinding a recycled view cancels
+ * the previous download and its result is never shown in the wrong row.
  */
 public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
 
     private static final String LOG_TAG = "DownloadImageTask";
     /**
-     * A reference to the {@link ImageView} to be filled
+     * The pixel format of the decoded thumbnails. Book covers are opaque, so they do not need an
+     * alpha channel.
+     */
+    private static final Bitmap.Config THUMBNAIL_CONFIG = Bitmap.Config.RGB_565;
+    /**
+     * The fraction of a row's width taken by the thumbnail in the layout of the list
+     */
+    private static final int THUMBNAIL_WIDTH_FRACTION = 5;
+    /**
+     * A reference to the {@link ImageView} to be filled, or null while the image is prefetched
+     * for a row that is not shown yet
      */
     private WeakReference<ImageView> mImageViewRef;
+    /**
+     * The cache where downloaded images are looked up and stored
+     */
+    private ImageCache mImageCache;
+    /**
+     * The URL being downloaded, set before the task starts running
+     */
+    private volatile String mUrlString;
+    /**
+     * The width at which the image is decoded, measured before the task starts running
+     */
+    private int mTargetWidth = 0;
+    /**
+     * Whether the task has left the queue of the executor and is running
+     */
+    private volatile boolean mStarted = false;
+    /**
+     * The book whose sharper thumbnail may follow the downloaded one, or null
+     */
+    private Book mUpgradeBook = null;
+    /**
+     * Whether the task replaces a thumbnail that is already shown, which is kept if it fails
+     */
+    private boolean mUpgrade = false;
 
     /**
      * Public constructor for the downloader
      *
      * @param imageViewRef a reference to the {@link ImageView} to be filled
+     * @param imageCache   the {@link ImageCache} where images are looked up and stored
      */
-    public DownloadImageTask(WeakReference<ImageView> imageViewRef) {
+    public DownloadImageTask(WeakReference<ImageView> imageViewRef, ImageCache imageCache) {
         mImageViewRef = imageViewRef;
+        mImageCache = imageCache;
+    }
+
+    /**
+     * Starts downloading an image for a row that is not shown yet, at a low priority. The result
+     * is only stored in the cache, unless a row takes the task over with {@link #attachTo}.
+     *
+     * @param urlString  the URL of the image
+     * @param sampleView an {@link ImageView} of another row, used to measure the decode width
+     * @param imageCache the {@link ImageCache} where images are looked up and stored
+     * @return the started {@link DownloadImageTask}
+     */
+    public static DownloadImageTask prefetch(String urlString, ImageView sampleView,
+                                             ImageCache imageCache) {
+        DownloadImageTask task = new DownloadImageTask(null, imageCache);
+        task.mTargetWidth = targetWidthFor(sampleView);
+        task.start(urlString, ImageLoadExecutor.PRIORITY_OFFSCREEN);
+        return task;
+    }
+
+    /**
+     * Binds a new task to the given {@link ImageView}, replacing any previous one
+     *
+     * @param imageView the {@link ImageView} to be filled
+     * @param task      the {@link DownloadImageTask} that will fill it
+     */
+    public static void bind(ImageView imageView, DownloadImageTask task) {
+        imageView.setTag(R.id.image_request_token, task);
+    }
+
+    /**
+     * Starts downloading a sharper thumbnail for an {@link ImageView} that already shows a
+     * smaller one, at a low priority. The smaller thumbnail stays if the download fails.
+     *
+     * @param imageView  the {@link ImageView} to be filled
+     * @param urlString  the URL of the sharper thumbnail
+     * @param imageCache the {@link ImageCache} where images are looked up and stored
+     */
+    public static void startUpgrade(ImageView imageView, String urlString,
+                                    ImageCache imageCache) {
+        Metrics.getInstance().increment(Metrics.IMAGE_UPGRADES);
+        DownloadImageTask task = new DownloadImageTask(new WeakReference<>(imageView),
+                imageCache);
+        task.mUpgrade = true;
+        bind(imageView, task);
+        task.start(urlString, ImageLoadExecutor.PRIORITY_OFFSCREEN);
+    }
+
+    /**
+     * Detaches the task bound to the given {@link ImageView} from it, so that the task only
+     * stores its image in the cache when it finishes
+     *
+     * @param imageView the {@link ImageView} that is going away
+     * @return the detached {@link DownloadImageTask}, or null if no task was bound
+     */
+    public static DownloadImageTask unbind(ImageView imageView) {
+        DownloadImageTask task = getBoundTask(imageView);
+        if (task != null) {
+            imageView.setTag(R.id.image_request_token, null);
+            task.mImageViewRef = null;
+        }
+        return task;
+    }
+
+    /**
+     * Cancels the download bound to the given {@link ImageView}, unless it is already downloading
+     * the requested URL
+     *
+     * @param imageView the {@link ImageView} that is being rebound
+     * @param urlString the URL of the image that the view should now show, or null if no download
+     *                  is needed any more
+     * @return true if a new download has to be started for the URL
+     */
+    public static boolean cancelPreviousDownload(ImageView imageView, String urlString) {
+        DownloadImageTask previousTask = getBoundTask(imageView);
+        if (previousTask != null) {
+            if (urlString != null && urlString.equals(previousTask.mUrlString)) {
+                // The same image is already on its way.
+                return false;
+            }
+            previousTask.cancel(true);
+            imageView.setTag(R.id.image_request_token, null);
+        }
+        return true;
+    }
+
+    /**
+     * Shows a decoded image in the given {@link ImageView} and records it as shown in the cache
+     *
+     * @param imageView  the {@link ImageView} to be filled
+     * @param bitmap     the {@link Bitmap} to be shown
+     * @param imageCache the {@link ImageCache} that tracks the shown images
+     */
+    public static void showBitmap(ImageView imageView, Bitmap bitmap, ImageCache imageCache) {
+        releaseShownBitmap(imageView, imageCache);
+        imageCache.retainBitmap(bitmap);
+        imageView.setTag(R.id.image_shown_bitmap, bitmap);
+        imageView.setImageBitmap(bitmap);
+    }
+
+    /**
+     * Shows the application image in the given {@link ImageView}
+     *
+     * @param imageView  the {@link ImageView} to be filled
+     * @param imageCache the {@link ImageCache} that tracks the shown images
+     */
+    public static void showPlaceholder(ImageView imageView, ImageCache imageCache) {
+        releaseShownBitmap(imageView, imageCache);
+        imageView.setImageResource(R.mipmap.book_cat_launcher);
+    }
+
+    /**
+     * Releases the decoded image previously shown by the given {@link ImageView}
+     *
+     * @param imageView  the {@link ImageView}
+     * @param imageCache the {@link ImageCache} that tracks the shown images
+     */
+    private static void releaseShownBitmap(ImageView imageView, ImageCache imageCache) {
+        Bitmap shownBitmap = (Bitmap) imageView.getTag(R.id.image_shown_bitmap);
+        if (shownBitmap != null) {
+            imageView.setTag(R.id.image_shown_bitmap, null);
+            imageCache.releaseBitmap(shownBitmap);
+        }
+    }
+
+    /**
+     * Returns the width at which images for the given {@link ImageView} should be decoded.
+     * Before the view has been laid out, its width is estimated from the layout of the list row.
+     *
+     * @param imageView the {@link ImageView}
+     * @return the width in pixels
+     */
+    static int targetWidthFor(ImageView imageView) {
+        int width = imageView.getWidth();
+        if (width <= 0) {
+            width = imageView.getResources().getDisplayMetrics().widthPixels
+                    / THUMBNAIL_WIDTH_FRACTION;
+        }
+        return width;
+    }
+
+    /**
+     * Returns the task currently bound to the given {@link ImageView}
+     *
+     * @param imageView the {@link ImageView}
+     * @return the bound {@link DownloadImageTask} or null
+     */
+    private static DownloadImageTask getBoundTask(ImageView imageView) {
+        if (imageView == null) {
+            return null;
+        }
+        return (DownloadImageTask) imageView.getTag(R.id.image_request_token);
+    }
+
+    /**
+     * Starts the download of the given URL on the network threads of the
+     * {@link ImageLoadExecutor}
+     *
+     * @param urlString the URL of the image
+     * @param priority  the priority of the download, one of
+     *                  {@link ImageLoadExecutor#PRIORITY_VISIBLE} or
+     *                  {@link ImageLoadExecutor#PRIORITY_OFFSCREEN}
+     */
+    public void start(String urlString, int priority) {
+        mUrlString = urlString;
+        ImageView imageView = (mImageViewRef != null) ? mImageViewRef.get() : null;
+        if (imageView != null) {
+            mTargetWidth = targetWidthFor(imageView);
+        }
+        executeOnExecutor(ImageLoadExecutor.getInstance().forPriority(priority), urlString);
+    }
+
+    /**
+     * Lets a prefetching task fill the given {@link ImageView} when it finishes. The task must
+     * also be bound to the view with {@link #bind}.
+     *
+     * @param imageView the {@link ImageView} of the row that now needs the image
+     */
+    public void attachTo(ImageView imageView) {
+        mImageViewRef = new WeakReference<>(imageView);
+    }
+
+    /**
+     * Lets the task download the sharper thumbnail of a book once it has shown the smaller one,
+     * if the {@link ThumbnailChooser} finds the connection fast enough by then
+     *
+     * @param book the {@link Book} whose thumbnail is downloaded
+     */
+    public void upgradeWhenShown(Book book) {
+        mUpgradeBook = book;
+    }
+
+    /**
+     * Returns the URL being downloaded
+     *
+     * @return the URL or null if the task has not been started
+     */
+    public String getUrl() {
+        return mUrlString;
+    }
+
+    /**
+     * Returns whether the task has left the queue of the executor, so that the download or the
+     * decoding is already under way
+     *
+     * @return true if the task has started running
+     */
+    public boolean hasStarted() {
+        return mStarted;
     }
 
     @Override
     protected Bitmap doInBackground(String... strings) {
-        URL imageUrl = makeURL(strings[0]);
-        Bitmap image;
-        try {
-            image = downloadImage(imageUrl);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error while downloading image", e);
+        mStarted = true;
+        String urlString = strings[0];
+        if (isCancelled()) {
+            return null;
+        }
+        // Look for the image on disk before going to the network.
+        byte[] imageData = mImageCache.getBytesFromDisk(urlString);
+        if (imageData == null) {
+            if (isCancelled()) {
+                return null;
+            }
+            URL imageUrl = makeURL(urlString);
+            long start = System.nanoTime();
+            try {
+                imageData = downloadImage(imageUrl);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error while downloading image", e);
+                Metrics.getInstance().increment(Metrics.IMAGE_ERRORS);
+                return null;
+            }
+            if (imageData != null) {
+                Metrics.getInstance().recordSince(Metrics.IMAGE_NETWORK, start);
+            } else if (imageUrl != null && !isCancelled()) {
+                Metrics.getInstance().increment(Metrics.IMAGE_ERRORS);
+            }
+            // A complete download is still worth keeping even if the row has moved on.
+            mImageCache.putBytesOnDisk(urlString, imageData);
+        }
+        // Do not spend time decoding an image that will not be shown.
+        if (imageData == null || isCancelled()) {
             return null;
         }
-        return image;
+        // Decode on the decode threads, which limits the number of images decoded at once.
+        final byte[] encodedImage = imageData;
+        final int targetWidth = mTargetWidth;
+        return ImageLoadExecutor.getInstance().decode(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                long start = System.nanoTime();
+                Bitmap bitmap = BitmapDecoder.decode(encodedImage, targetWidth, 0,
+                        THUMBNAIL_CONFIG, mImageCache.getBitmapPool());
+                Metrics.getInstance().recordSince(Metrics.IMAGE_DECODE, start);
+                return bitmap;
+            }
+        });
     }
 
     @Override
     protected void onPostExecute(Bitmap bitmap) {
         super.onPostExecute(bitmap);
-
+        // The memory cache is only touched from the main thread, so that a bitmap cannot be
+        // pooled between being read from the cache and being shown.
+        // The image is shown before it is cached. Caching it may evict images, even itself if it
+        // is larger than the cache, and an evicted image is only pooled once no view shows it.
         if (mImageViewRef != null) {
             ImageView imgView = mImageViewRef.get();
-            if (imgView != null) {
+            // Drop the result if the view has been rebound to another image in the meantime.
+            if (imgView != null && getBoundTask(imgView) == this) {
+                imgView.setTag(R.id.image_request_token, null);
                 if (bitmap != null) {
-                    imgView.setImageBitmap(bitmap);
-                } else {
+                    showBitmap(imgView, bitmap, mImageCache);
+                    String upgradeUrl = (mUpgradeBook != null)
+                            ? ThumbnailChooser.getInstance().chooseUpgradeUrl(mUpgradeBook,
+                            mUrlString, mTargetWidth) : null;
+                    if (upgradeUrl != null) {
+                        startUpgrade(imgView, upgradeUrl, mImageCache);
+                    }
+                } else if (!mUpgrade) {
                     // If no image is available use the application image
-                    imgView.setImageDrawable(imgView.getContext().getResources()
-                            .getDrawable(R.mipmap.book_cat_launcher));
+                    showPlaceholder(imgView, mImageCache);
                 }
             }
         }
+        mImageCache.putBitmapInMemory(mUrlString, bitmap);
+    }
+
+    @Override
+    protected void onCancelled(Bitmap bitmap) {
+        super.onCancelled(bitmap);
+        // Keep an image that was decoded before the cancellation arrived.
+        mImageCache.putBitmapInMemory(mUrlString, bitmap);
     }
 
     /**
@@ -106,35 +408,37 @@ public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
      * Downloads the image from the given URL
      *
      * @param url the {@link URL} from where the image will be downloaded
-     * @return a {@link Bitmap} image
+     * @return the bytes of the encoded image
      * @throws IOException
      */
-    private Bitmap downloadImage(URL url) throws IOException {
-        Bitmap bitmapOutput;
+    private byte[] downloadImage(URL url) throws IOException {
+        byte[] imageOutput;
         // If no available URL return early
         if (url == null) {
             return null;
         }
 
-        HttpURLConnection httpConnection = null;
-        InputStream inputStream = null;
+        HttpFetcher.Response response = null;
+        long start = System.nanoTime();
 
         try {
-            // Set up the connection
-            httpConnection = (HttpURLConnection) url.openConnection();
-            httpConnection.setRequestMethod("GET");
-            httpConnection.setReadTimeout(10000);
-            httpConnection.setConnectTimeout(15000);
-            httpConnection.connect();
-
-            if (httpConnection.getResponseCode() == 200) {
+            // Make the request on a shared connection.
+            response = HttpFetcher.getInstance().get(url, null);
+
+            if (response.getCode() == 200) {
                 // If all OK get the image
-                inputStream = httpConnection.getInputStream();
-                bitmapOutput = BitmapFactory.decodeStream(inputStream);
+                imageOutput = readFromInputStream(response.getBody());
+                if (imageOutput == null) {
+                    // The download was cancelled, so the rest of the image is not worth reading.
+                    response.cancel();
+                } else {
+                    // Time the download to choose the size of the next thumbnails.
+                    BandwidthMeter.getInstance().record(imageOutput.length,
+                            System.nanoTime() - start);
+                }
             } else {
                 // In case of a non-normal response print a message in the log and return early
-                Log.e(LOG_TAG, "Error with HTTP Connection. Error Code "
-                        + httpConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error with HTTP Connection. Error Code " + response.getCode());
                 return null;
             }
         } catch (IOException e) {
@@ -142,15 +446,34 @@ public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
             Log.e(LOG_TAG, "Error while downloading image", e);
             return null;
         } finally {
-            // Close the connection and the stream
-            if (httpConnection != null) {
-                httpConnection.disconnect();
-            }
-            if (inputStream != null) {
-                inputStream.close();
+            // Release the connection for the next download
+            if (response != null) {
+                response.close();
             }
         }
         // Return image
-        return bitmapOutput;
+        return imageOutput;
+    }
+
+    /**
+     * Reads all the bytes of the given {@link InputStream}
+     *
+     * @param inputStream the {@link InputStream} from where to read.
+     * @return the bytes read or null if the task was cancelled while reading
+     * @throws IOException
+     */
+    private byte[] readFromInputStream(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+            // Stop reading as soon as the download is no longer needed.
+            if (isCancelled()) {
+                return null;
+            }
+            output.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        return output.toByteArray();
     }
 }
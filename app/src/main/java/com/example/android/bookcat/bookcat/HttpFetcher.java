@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP layer shared by the searches and the thumbnail downloads.
+ * Every request asks for a gzip encoded response and the body is decompressed while it is read.
+ * Connections are never disconnected after a request. Instead the rest of the body is read when
+ * a {@link Response} is closed, so that the connection goes back to the pool of
+ * {@link HttpURLConnection} and the next request to the same host skips the TCP and TLS
+ * handshakes.
+ * A request that fails with an I/O error or with a status that tells the client to come back
+ * later (429 and 5xx) is retried after an exponential backoff with full jitter, or after the time
+ * asked for by a Retry-After header. The failures of every host are tracked by a
+ * {@link CircuitBreaker}, so that the requests to a host that keeps failing fail at once.
+ * The stages of every request, its bytes, its retries and its errors are recorded in
+ * {@link Metrics}.
+ */
+public class HttpFetcher {
+
+    private static final String LOG_TAG = "HttpFetcher";
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    /**
+     * The largest number of unread bytes that are read to keep a connection, a connection with
+     * more left is closed instead
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * The number of times a request is made before its failure is returned, and the bounds of
+     * the backoff before the second attempt and before any attempt
+     */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+    /**
+     * The longest wait asked for by a Retry-After header that is honoured. A server asking for
+     * longer gets its error returned at once.
+     */
+    private static final long MAX_RETRY_AFTER_MILLIS = 5000;
+    /**
+     * The failed attempts in a row after which a host is not contacted, and for how long
+     */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30 * 1000;
+
+    /**
+     * Disconnects the cancelled connections. Closing the socket of a connection can block, and a
+     * request is often cancelled from the main thread, so it is done on a thread of its own that
+     * stops when there is nothing to disconnect.
+     */
+    private static final long DISCONNECT_KEEP_ALIVE_SECONDS = 10;
+    private static final ThreadPoolExecutor sDisconnectExecutor = newDisconnectExecutor();
+
+    private static HttpFetcher sInstance = null;
+
+    private final Metrics mMetrics;
+    private final int mMaxAttempts;
+    private final long mBaseBackoffMillis;
+    private final int mCircuitFailureThreshold;
+    private final long mCircuitOpenMillis;
+    /**
+     * The circuit breakers by host
+     */
+    private final ConcurrentMap<String, CircuitBreaker> mCircuitBreakers =
+            new ConcurrentHashMap<>();
+    private final Random mRandom = new Random();
+
+    /**
+     * Returns the single instance used by the application
+     *
+     * @return the shared {@link HttpFetcher}
+     */
+    public static synchronized HttpFetcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpFetcher(Metrics.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the executor of the disconnections, whose thread does not keep the process alive
+     *
+     * @return the {@link ThreadPoolExecutor}
+     */
+    private static ThreadPoolExecutor newDisconnectExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, DISCONNECT_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "HttpDisconnect");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Constructor for the class with metrics of its own
+     */
+    HttpFetcher() {
+        this(new Metrics());
+    }
+
+    /**
+     * Constructor for the class. The connection pool is shared by all the instances.
+     *
+     * @param metrics the {@link Metrics} where the requests are recorded
+     */
+    HttpFetcher(Metrics metrics) {
+        this(metrics, MAX_ATTEMPTS, BASE_BACKOFF_MILLIS, CIRCUIT_FAILURE_THRESHOLD,
+                CIRCUIT_OPEN_MILLIS);
+    }
+
+    /**
+     * Constructor for the class with its own retry and circuit settings
+     *
+     * @param metrics                 the {@link Metrics} where the requests are recorded
+     * @param maxAttempts             the number of times a request is made before it fails
+     * @param baseBackoffMillis       the longest backoff before the second attempt
+     * @param circuitFailureThreshold the failed attempts in a row that open the circuit of a host
+     * @param circuitOpenMillis       the time for which an open circuit refuses requests
+     */
+    HttpFetcher(Metrics metrics, int maxAttempts, long baseBackoffMillis,
+                int circuitFailureThreshold, long circuitOpenMillis) {
+        mMetrics = metrics;
+        mMaxAttempts = maxAttempts;
+        mBaseBackoffMillis = baseBackoffMillis;
+        mCircuitFailureThreshold = circuitFailureThreshold;
+        mCircuitOpenMillis = circuitOpenMillis;
+    }
+
+    /**
+     * Makes a GET request and waits for the headers of the response. Failed attempts are
+     * retried as long as the circuit of the host is closed. Interrupting the calling thread
+     * stops the retries.
+     *
+     * @param url            the {@link URL} to request
+     * @param requestHeaders extra headers of the request or null
+     * @return the {@link Response}, which must be closed by the caller. Its status is an error
+     * if the last attempt got one.
+     * @throws IOException if the last attempt fails, if the circuit of the host is open or if
+     *                     the thread is interrupted
+     */
+    public Response get(URL url, @Nullable Map<String, String> requestHeaders)
+            throws IOException {
+        CircuitBreaker circuitBreaker = getCircuitBreaker(url.getHost());
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                mMetrics.increment(Metrics.HTTP_REJECTED);
+                throw new CircuitBreaker.OpenException(url.getHost());
+            }
+            long backoffMillis = backoffMillis(attempt);
+            try {
+                Response response = attempt(url, requestHeaders);
+                if (!isRetryable(response.getCode())) {
+                    circuitBreaker.recordSuccess();
+                    return response;
+                }
+                circuitBreaker.recordFailure();
+                long retryAfterMillis = parseRetryAfter(response.getHeader("Retry-After"));
+                if (attempt == mMaxAttempts || retryAfterMillis > MAX_RETRY_AFTER_MILLIS) {
+                    return response;
+                }
+                response.close();
+                backoffMillis = Math.max(backoffMillis, retryAfterMillis);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The request was cancelled, which says nothing about the host.
+                    throw e;
+                }
+                circuitBreaker.recordFailure();
+                if (attempt == mMaxAttempts) {
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Attempt " + attempt + " failed, retrying", e);
+            }
+            mMetrics.increment(Metrics.HTTP_RETRIES);
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off");
+            }
+        }
+    }
+
+    /**
+     * Returns the circuit breaker of a host, creating it if needed
+     *
+     * @param host the host
+     * @return the {@link CircuitBreaker}
+     */
+    CircuitBreaker getCircuitBreaker(String host) {
+        CircuitBreaker circuitBreaker = mCircuitBreakers.get(host);
+        if (circuitBreaker == null) {
+            CircuitBreaker newCircuitBreaker =
+                    new CircuitBreaker(mCircuitFailureThreshold, mCircuitOpenMillis);
+            circuitBreaker = mCircuitBreakers.putIfAbsent(host, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Makes one attempt of a request
+     *
+     * @param url            the {@link URL} to request
+     * @param requestHeaders extra headers of the request or null
+     * @return the {@link Response}
+     * @throws IOException if the attempt fails
+     */
+    private Response attempt(URL url, @Nullable Map<String, String> requestHeaders)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        // Asking for an encoding turns off the transparent decompression of HttpURLConnection,
+        // so the body is decompressed by the Response.
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        mMetrics.increment(Metrics.HTTP_REQUESTS);
+        try {
+            long start = System.nanoTime();
+            connection.connect();
+            mMetrics.recordSince(Metrics.HTTP_CONNECT, start);
+            start = System.nanoTime();
+            int code = connection.getResponseCode();
+            mMetrics.recordSince(Metrics.HTTP_FIRST_BYTE, start);
+            if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                mMetrics.increment(Metrics.HTTP_ERRORS);
+            }
+            return new Response(connection, code);
+        } catch (IOException e) {
+            mMetrics.increment(Metrics.HTTP_ERRORS);
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a random backoff up to an exponentially growing bound
+     *
+     * @param attempt the attempt that failed, from 1
+     * @return the backoff in milliseconds
+     */
+    private long backoffMillis(int attempt) {
+        long bound = Math.min(mBaseBackoffMillis << Math.min(attempt - 1, 16),
+                MAX_BACKOFF_MILLIS);
+        return (long) (mRandom.nextDouble() * bound);
+    }
+
+    /**
+     * Tells whether a status asks the client to try again later
+     *
+     * @param code the HTTP status code
+     * @return true for 429 and the server errors
+     */
+    static boolean isRetryable(int code) {
+        return code == 429 || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    /**
+     * Reads a Retry-After header given in seconds. The date form is not used by the servers of
+     * the application.
+     *
+     * @param retryAfter the value of the header or null
+     * @return the wait in milliseconds, 0 if there is none
+     */
+    static long parseRetryAfter(@Nullable String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(retryAfter.trim()), 0));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of requests made
+     *
+     * @return the number of requests
+     */
+    public long getRequestCount() {
+        return mMetrics.getCount(Metrics.HTTP_REQUESTS);
+    }
+
+    /**
+     * Returns the number of body bytes received, before they are decompressed
+     *
+     * @return the number of bytes
+     */
+    public long getBytesReceived() {
+        return mMetrics.getCount(Metrics.HTTP_BYTES);
+    }
+
+    @Override
+    public String toString() {
+        return "Requests: " + getRequestCount() + ", bytes received: " + getBytesReceived();
+    }
+
+    /**
+     * The response of a request. Closing it releases its connection for reuse.
+     */
+    public class Response implements Closeable {
+
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        /**
+         * The body as it arrives from the network and as it is read by the caller
+         */
+        private CountingInputStream mRawBody = null;
+        private InputStream mBody = null;
+        /**
+         * Set by {@link #cancel()}, which may be called from another thread
+         */
+        private volatile boolean mClosed = false;
+        /**
+         * When the headers arrived, the start of the body time
+         */
+        private final long mHeadersNanos = System.nanoTime();
+
+        Response(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        /**
+         * Returns the status code of the response
+         *
+         * @return the HTTP status code
+         */
+        public int getCode() {
+            return mCode;
+        }
+
+        /**
+         * Returns the value of a header of the response
+         *
+         * @param name the name of the header
+         * @return the value or null if the header is missing
+         */
+        @Nullable
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * Returns the decompressed body of the response. It is the error body if the status code
+         * is not a successful one.
+         *
+         * @return the {@link InputStream} of the body
+         * @throws IOException if the body can not be opened
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mBody = decode(openRawBody());
+            }
+            return mBody;
+        }
+
+        /**
+         * Drops the connection instead of releasing it. Used when the rest of the body is not
+         * needed and reading it would waste time, or to stop a read from another thread. It
+         * returns at once: the response is marked closed on the calling thread and the
+         * connection is disconnected in the background, which makes a read in progress fail.
+         */
+        public void cancel() {
+            if (!mClosed) {
+                mClosed = true;
+                mMetrics.recordSince(Metrics.HTTP_BODY, mHeadersNanos);
+            }
+            sDisconnectExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mConnection.disconnect();
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                // The connection can only be reused once the whole body has been read.
+                CountingInputStream rawBody = openRawBody();
+                if (rawBody != null) {
+                    long skipped = 0;
+                    byte[] buffer = new byte[8192];
+                    int count = rawBody.read(buffer);
+                    while (count != -1 && skipped < MAX_DRAIN_BYTES) {
+                        skipped += count;
+                        count = rawBody.read(buffer);
+                    }
+                    if (count != -1) {
+                        mConnection.disconnect();
+                    }
+                    rawBody.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error while releasing connection", e);
+                mConnection.disconnect();
+            }
+            mMetrics.recordSince(Metrics.HTTP_BODY, mHeadersNanos);
+        }
+
+        /**
+         * Opens the body as it arrives from the network, counting its bytes
+         *
+         * @return the {@link CountingInputStream} or null if the response has no body
+         * @throws IOException
+         */
+        private CountingInputStream openRawBody() throws IOException {
+            if (mRawBody == null) {
+                InputStream stream = (mCode >= HttpURLConnection.HTTP_BAD_REQUEST)
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (stream == null) {
+                    return null;
+                }
+                mRawBody = new CountingInputStream(stream);
+            }
+            return mRawBody;
+        }
+
+        /**
+         * Wraps the body in a decompressing stream if the server compressed it
+         *
+         * @param rawBody the body as it arrives from the network
+         * @return the {@link InputStream} of the decompressed body
+         * @throws IOException
+         */
+        private InputStream decode(InputStream rawBody) throws IOException {
+            if (rawBody != null && "gzip".equalsIgnoreCase(getHeader("Content-Encoding"))) {
+                return new GZIPInputStream(rawBody);
+            }
+            return rawBody;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream in the {@link Metrics} of the {@link HttpFetcher}
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                mMetrics.increment(Metrics.HTTP_BYTES);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mMetrics.add(Metrics.HTTP_BYTES, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mMetrics.add(Metrics.HTTP_BYTES, skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A two level cache for book thumbnails shared by the whole application.
+ * Decoded {@link Bitmap} objects are kept in memory in an LRU cache that is sized in bytes and the
+ * downloaded bytes of the images are kept on disk in a {@link DiskImageCache}.
+ * The cache also keeps track of the bitmaps that are shown on screen, so that bitmaps which are
+ * neither cached nor shown can be handed to a {@link BitmapPool} for reuse.
+ * The memory level is trimmed by the {@link MemoryBudget} when the system is low on memory.
+ * The memory level must only be used from the main thread.
+ */
+public class ImageCache implements MemoryBudget.Trimmable {
+
+    /**
+     * The fraction of the maximum heap size that is used for the memory cache
+     */
+    private static final int MEMORY_CACHE_HEAP_FRACTION = 8;
+    /**
+     * The fraction of the memory cache size that is used for the bitmap pool
+     */
+    private static final int BITMAP_POOL_FRACTION = 4;
+    /**
+     * The maximum size of the disk cache in bytes
+     */
+    private static final long DISK_CACHE_SIZE = 10 * 1024 * 1024;
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    private static ImageCache sInstance = null;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    /**
+     * The URLs of the images in the memory cache, so that they can be looked up without
+     * changing the order in which the images are evicted
+     */
+    private final Set<String> mMemoryKeys = new HashSet<>();
+    private final DiskImageCache mDiskCache;
+    private final BitmapPool mBitmapPool;
+    /**
+     * The number of views that currently show each bitmap
+     */
+    private final Map<Bitmap, Integer> mDisplayCounts = new WeakHashMap<>();
+    /**
+     * Bitmaps that were removed from the memory cache while they were still shown
+     */
+    private final Set<Bitmap> mRemovedWhileDisplayed =
+            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Returns the single instance of the cache, creating it if needed
+     *
+     * @param context any {@link Context} of the application
+     * @return the shared {@link ImageCache}
+     */
+    public static synchronized ImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(),
+                    DISK_CACHE_DIRECTORY);
+            int memoryCacheSize = (int) (Runtime.getRuntime().maxMemory()
+                    / MEMORY_CACHE_HEAP_FRACTION);
+            sInstance = new ImageCache(memoryCacheSize,
+                    new DiskImageCache(directory, DISK_CACHE_SIZE));
+            MemoryBudget.getInstance(context).register(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor for the class
+     *
+     * @param memoryCacheSize the maximum size of the memory cache in bytes
+     * @param diskCache       the {@link DiskImageCache} used as the second level
+     */
+    ImageCache(int memoryCacheSize, DiskImageCache diskCache) {
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (newValue == null) {
+                    mMemoryKeys.remove(key);
+                }
+                if (oldValue != newValue) {
+                    onBitmapUnused(oldValue);
+                }
+            }
+        };
+        mDiskCache = diskCache;
+        mBitmapPool = new BitmapPool(memoryCacheSize / BITMAP_POOL_FRACTION);
+    }
+
+    /**
+     * Returns a decoded image from the memory cache. Safe to call from the main thread.
+     *
+     * @param url the URL of the image
+     * @return the {@link Bitmap} or null if it is not in memory
+     */
+    public Bitmap getBitmapFromMemory(String url) {
+        if (url == null) {
+            return null;
+        }
+        Bitmap bitmap = mMemoryCache.get(url);
+        if (bitmap != null) {
+            mMemoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns whether a decoded image is in the memory cache, without counting the lookup as a
+     * hit and without making the image the most recently used one. Safe to call from the main
+     * thread.
+     *
+     * @param url the URL of the image
+     * @return true if the image is in memory
+     */
+    public boolean isInMemory(String url) {
+        return url != null && mMemoryKeys.contains(url);
+    }
+
+    /**
+     * Stores a decoded image in the memory cache
+     *
+     * @param url    the URL of the image
+     * @param bitmap the decoded {@link Bitmap}
+     */
+    public void putBitmapInMemory(String url, Bitmap bitmap) {
+        if (url != null && bitmap != null) {
+            // Added first, since an image larger than the cache is evicted by the put itself.
+            mMemoryKeys.add(url);
+            mMemoryCache.put(url, bitmap);
+        }
+    }
+
+    /**
+     * Records that a bitmap is now shown by a view
+     *
+     * @param bitmap the shown {@link Bitmap}
+     */
+    public void retainBitmap(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        mDisplayCounts.put(bitmap, (count == null) ? 1 : count + 1);
+    }
+
+    /**
+     * Records that a view no longer shows a bitmap. If the bitmap is not in the memory cache any
+     * more, its memory becomes available for reuse.
+     *
+     * @param bitmap the {@link Bitmap} that is no longer shown
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        Integer count = mDisplayCounts.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mDisplayCounts.put(bitmap, count - 1);
+        } else {
+            mDisplayCounts.remove(bitmap);
+            if (mRemovedWhileDisplayed.remove(bitmap)) {
+                mBitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used bitmaps from the memory cache and the pool until they hold
+     * the given share of their maximum size. The images that are still shown stay in memory
+     * with their views, the others are decoded again from the disk cache when they are needed.
+     *
+     * @param keepPercent the share of the memory to keep, from 0 to 100
+     */
+    @Override
+    public void trimMemory(int keepPercent) {
+        // The evicted bitmaps that are not shown go to the pool, so it is trimmed last.
+        mMemoryCache.trimToSize((int) ((long) mMemoryCache.maxSize() * keepPercent / 100));
+        mBitmapPool.trimToSize(mBitmapPool.maxSize() * keepPercent / 100);
+    }
+
+    /**
+     * Returns the pool of bitmaps that can be reused for decoding
+     *
+     * @return the {@link BitmapPool}
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Called when a bitmap leaves the memory cache. It is pooled right away if it is not shown,
+     * otherwise once the last view releases it.
+     *
+     * @param bitmap the removed {@link Bitmap}
+     */
+    private void onBitmapUnused(Bitmap bitmap) {
+        if (mDisplayCounts.containsKey(bitmap)) {
+            mRemovedWhileDisplayed.add(bitmap);
+        } else {
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Returns the bytes of an image from the disk cache. Must not be called from the main thread.
+     * A failed lookup is counted as a miss, since the image then has to be downloaded.
+     *
+     * @param url the URL of the image
+     * @return the bytes of the image or null if they are not on disk
+     */
+    public byte[] getBytesFromDisk(String url) {
+        if (url == null) {
+            return null;
+        }
+        byte[] data = mDiskCache.get(url);
+        if (data != null) {
+            mDiskHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return data;
+    }
+
+    /**
+     * Stores the bytes of a downloaded image in the disk cache. Must not be called from the main
+     * thread.
+     *
+     * @param url  the URL of the image
+     * @param data the bytes of the image
+     */
+    public void putBytesOnDisk(String url, byte[] data) {
+        if (url != null && data != null) {
+            mDiskCache.put(url, data);
+        }
+    }
+
+    /**
+     * Returns the total size of the images in the disk cache. The first call reads the cache
+     * directory, so it must not be made from the main thread.
+     *
+     * @return the size in bytes
+     */
+    public long getDiskSize() {
+        return mDiskCache.size();
+    }
+
+    /**
+     * Returns the number of images served from memory without decoding
+     *
+     * @return the number of memory hits
+     */
+    public long getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    /**
+     * Returns the number of images served from disk without network access
+     *
+     * @return the number of disk hits
+     */
+    public long getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    /**
+     * Returns the number of images that had to be downloaded
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        long memoryHits = getMemoryHitCount();
+        long diskHits = getDiskHitCount();
+        long misses = getMissCount();
+        long total = memoryHits + diskHits + misses;
+        int hitRate = (total == 0) ? 0 : (int) (100 * (memoryHits + diskHits) / total);
+        return "Memory hits: " + memoryHits + ", disk hits: " + diskHits + ", misses: " + misses
+                + " (" + hitRate + "% hit rate)";
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the loading of images on its own threads, separately from the executors of
+ * {@link android.os.AsyncTask}, so that image traffic never delays a search.
+ * Downloads run on a bounded pool of network threads, taking the requests with the highest
+ * priority first and the most recent ones first within the same priority. Decoding runs on a
+ * separate bounded pool so that the number of images in memory at the same time stays low.
+ */
+public class ImageLoadExecutor {
+
+    /**
+     * Priority of an image shown in a row that is currently visible
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+    /**
+     * Priority of an image that is not visible yet
+     */
+    public static final int PRIORITY_OFFSCREEN = 1;
+
+    private static final int DEFAULT_NETWORK_THREADS = 4;
+    private static final int DEFAULT_DECODE_THREADS =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ImageLoadExecutor sInstance = null;
+
+    private final ThreadPoolExecutor mNetworkExecutor;
+    private final ThreadPoolExecutor mDecodeExecutor;
+    /**
+     * Gives every request a sequence number, so that newer requests can go first
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Returns the executor shared by the whole application, creating it if needed
+     *
+     * @return the shared {@link ImageLoadExecutor}
+     */
+    public static synchronized ImageLoadExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageLoadExecutor(DEFAULT_NETWORK_THREADS, DEFAULT_DECODE_THREADS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Public constructor for the class
+     *
+     * @param networkThreads the number of images that can be downloaded in parallel
+     * @param decodeThreads  the number of images that can be decoded in parallel
+     */
+    public ImageLoadExecutor(int networkThreads, int decodeThreads) {
+        mNetworkExecutor = new ThreadPoolExecutor(networkThreads, networkThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory("ImageNetwork"));
+        mNetworkExecutor.allowCoreThreadTimeOut(true);
+        mDecodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory("ImageDecode"));
+        mDecodeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns an {@link Executor} that runs its tasks on the network threads with the given
+     * priority. It can be passed to {@link android.os.AsyncTask#executeOnExecutor}.
+     *
+     * @param priority one of {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_OFFSCREEN}
+     * @return the {@link Executor}
+     */
+    public Executor forPriority(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                mNetworkExecutor.execute(new PrioritizedRunnable(runnable, priority,
+                        mSequence.incrementAndGet()));
+            }
+        };
+    }
+
+    /**
+     * Runs the given decoding work on the decode threads and waits for its result.
+     * If the calling thread is interrupted, the decoding is cancelled and null is returned.
+     *
+     * @param decoder the decoding work
+     * @param <T>     the type of the result
+     * @return the result of the decoding or null if it was interrupted or failed
+     */
+    public <T> T decode(Callable<T> decoder) {
+        Future<T> future = mDecodeExecutor.submit(decoder);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops all the threads of the executor. Tasks that have not started are dropped.
+     */
+    public void shutdown() {
+        mNetworkExecutor.shutdownNow();
+        mDecodeExecutor.shutdownNow();
+    }
+
+    /**
+     * A {@link Runnable} ordered by priority and then by newest first
+     */
+    private static class PrioritizedRunnable implements Runnable,
+            Comparable<PrioritizedRunnable> {
+
+        private final Runnable mRunnable;
+        private final int mPriority;
+        private final long mSequence;
+
+        PrioritizedRunnable(Runnable runnable, int priority, long sequence) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedRunnable other) {
+            if (mPriority != other.mPriority) {
+                return (mPriority < other.mPriority) ? -1 : 1;
+            }
+            // The most recently bound rows are the ones on screen.
+            if (mSequence != other.mSequence) {
+                return (mSequence > other.mSequence) ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Creates named threads that run with background priority
+     */
+    private static class BackgroundThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        BackgroundThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + " #" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -15,100 +15,237 @@
  */
 package com.example.android.bookcat.bookcat;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
+import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.design.widget.TextInputEditText;
+import android.support.v4.app.FragmentManager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.KeyEvent;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.view.WindowManager;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.AdapterView;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.List;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements SearchFragment.Callbacks {
 
     private static final String LOG_TAG = "Book Cat";
 
-    private static final String BOOK_SEARCH_URL = "https://www.googleapis.com/books/v1/volumes?q=";
+    /**
+     * The next page is requested once the user is this many rows away from the end of the list
+     */
+    private static final int PAGE_PREFETCH_ROWS = 5;
+    /**
+     * The time without typing after which the text of the search box is searched for
+     */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 400;
 
-    String mJsonResponse = null;
-    ArrayList<Book> mBookList = null;
+    /**
+     * Runs the searches and keeps their results while the activity is recreated
+     */
+    SearchFragment mSearchFragment = null;
+    /**
+     * The adapter of the list, created once the books to show are ready
+     */
     BookAdapter mAdapter = null;
-    ListView mBookListView = null;
+    RecyclerView mBookListView = null;
+    LinearLayoutManager mLayoutManager = null;
+    ThumbnailPrefetcher mPrefetcher = null;
     TextView mInstructionsText = null;
+    ProgressBar mLoadingProgress = null;
+    TextInputEditText mSearchText = null;
+
+    /**
+     * Whether the caches have been opened by an activity of this process
+     */
+    private static boolean sWarmedUp = false;
+
+    /**
+     * When the creation of the activity started, and whether it was created from a saved state
+     */
+    private long mCreateNanos = 0;
+    private boolean mRestored = false;
+
+    /**
+     * Runs the tasks that wait for a frame to be drawn
+     */
+    private final Handler mFrameHandler = new Handler();
+
+    /**
+     * Searches for the text of the search box once the user stops typing
+     */
+    private final Handler mSearchHandler = new Handler();
+    private final Runnable mDebouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            String queryText = mSearchText.getText().toString();
+            String shownQueryText = mSearchFragment.getQueryText();
+            // Nothing to search for, or the results of this text are already shown.
+            if (TextUtils.isEmpty(queryText.trim())
+                    || (shownQueryText != null && queryText.trim().equals(shownQueryText.trim()))) {
+                return;
+            }
+            URL searchUrl = SearchFragment.makeSearchUrl(queryText, 0);
+            if (searchUrl != null) {
+                mSearchFragment.search(queryText);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateNanos = System.nanoTime();
+        mRestored = savedInstanceState != null;
         super.onCreate(savedInstanceState);
 
+        // Only what the first frame shows is set up here, everything else waits until it has
+        // been drawn. The virtual keyboard is hidden by the manifest.
+
         // Inflate layout for main activity
         setContentView(R.layout.activity_main);
 
-        // Hide the virtual keyboard
-        this.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_HIDDEN);
-
-        // Locate the ListView in the main layout.
-        mBookListView = (ListView) findViewById(R.id.book_list_view);
+        // Locate the RecyclerView in the main layout.
+        mBookListView = (RecyclerView) findViewById(R.id.book_list_view);
+        mLayoutManager = new LinearLayoutManager(this);
+        mBookListView.setLayoutManager(mLayoutManager);
 
-        //Locate the TextView of instructions
+        //Locate the TextView of instructions and the progress shown while the books are restored
         mInstructionsText = (TextView) findViewById(R.id.instructions_text);
-
-        // Restore previous saved state if it exists.
-        // The search results are not lost when the orientation of the device is changed.
-        if (savedInstanceState != null) {
-            mJsonResponse = savedInstanceState.getString("JSON Response");
-        }
-        if (mJsonResponse != null) {
-            mBookList = extractBookList();
+        mLoadingProgress = (ProgressBar) findViewById(R.id.loading_progress);
+        mSearchText = (TextInputEditText) findViewById(R.id.search_text);
+
+        // Find the searches of the previous instance if they exist.
+        // A search that is running when the orientation of the device is changed goes on, and
+        // its results are delivered to this instance. If the process was restarted, the results
+        // are read back from the saved state by the fragment.
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        mSearchFragment = (SearchFragment) fragmentManager.findFragmentByTag(SearchFragment.TAG);
+        if (mSearchFragment == null) {
+            mSearchFragment = new SearchFragment();
+            fragmentManager.beginTransaction().add(mSearchFragment, SearchFragment.TAG)
+                    .commitNow();
         }
-        if (mBookList != null) {
-            mAdapter = new BookAdapter(getApplicationContext(), mBookList);
+        if (mSearchFragment.isRestoring()) {
+            // The books of the restarted process are formatted in the background first, and
+            // delivered to onBooksReplaced().
+            mLoadingProgress.setVisibility(View.VISIBLE);
+        } else if (!mSearchFragment.getBooks().isEmpty()) {
+            // The books kept across a rotation are ready, and the list is scrolled back to where
+            // it was once they are shown.
+            showBookList();
         } else {
             // If no data are present, show the instructions' TextView
             mInstructionsText.setVisibility(View.VISIBLE);
         }
 
-        // Attach the BookAdapter to the list
-        if (mAdapter != null) {
-            mBookListView.setAdapter(mAdapter);
+        runAfterNextFrame(new Runnable() {
+            @Override
+            public void run() {
+                onFirstFrame();
+            }
+        });
+    }
+
+    /**
+     * Finishes the setup of the activity once its first frame has been drawn: the search box
+     * starts to react, the list is made ready for the first search, and the caches are opened in
+     * the background.
+     */
+    private void onFirstFrame() {
+        Metrics.getInstance().recordSince(mRestored ? Metrics.STARTUP_RESTORE_FIRST_FRAME
+                : Metrics.STARTUP_COLD_FIRST_FRAME, mCreateNanos);
+        setUpSearchBox();
+        if (mAdapter == null && !mSearchFragment.isRestoring()) {
+            showBookList();
         }
+        if (!sWarmedUp) {
+            sWarmedUp = true;
+            new WarmUpTask(getApplicationContext())
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Attaches the {@link BookAdapter} to the list with the books of the search fragment. The
+     * same adapter is kept for every search and page of results. The time until the list is
+     * drawn with the books is recorded.
+     */
+    private void showBookList() {
+        mLoadingProgress.setVisibility(View.GONE);
+        List<Book> books = mSearchFragment.getBooks();
+        mInstructionsText.setVisibility(books.isEmpty() ? View.VISIBLE : View.INVISIBLE);
 
-        // Set an OnItemClickListener for the list.
         // When an item is clicked an a website describing the book is opened.
-        mBookListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new BookAdapter(getApplicationContext(), books,
+                new BookAdapter.OnBookClickListener() {
+                    @Override
+                    public void onBookClick(Book book) {
+                        Intent browserIntent = new Intent(Intent.ACTION_VIEW,
+                                Uri.parse(book.getPreviewUrl()));
+                        startActivity(browserIntent);
+                    }
+                });
+        mBookListView.setAdapter(mAdapter);
+
+        // Download the thumbnails of the rows ahead of the scroll before they are shown. The rows
+        // take over the downloads of the rows of the previous instance.
+        mPrefetcher = mSearchFragment.getPrefetcher();
+        mPrefetcher.attach(mAdapter, mLayoutManager);
+        mAdapter.setPrefetcher(mPrefetcher);
+        mBookListView.addOnScrollListener(mPrefetcher);
+
+        // Set an OnScrollListener for the list.
+        // When the user gets close to the end of the list the next page of results is requested.
+        mBookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && mLayoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PAGE_PREFETCH_ROWS) {
+                    mSearchFragment.loadNextPage();
+                }
+            }
+        });
+
+        runAfterNextFrame(new Runnable() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                String destinationUrl = mAdapter.getItem(i).getPreviewUrl();
-                Intent browserIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(destinationUrl));
-                startActivity(browserIntent);
+            public void run() {
+                Metrics.getInstance().recordSince(mRestored ? Metrics.STARTUP_RESTORE_POPULATED
+                        : Metrics.STARTUP_COLD_POPULATED, mCreateNanos);
             }
         });
+    }
 
+    /**
+     * Sets the listeners of the search button and of the search text
+     */
+    private void setUpSearchBox() {
         // Set an OnClickListener for the search button.
         // It generates the search URL and if all OK, it hides the virtual keyboard and executes an
         // AsyncTask that downloads Book information.
@@ -116,6 +253,8 @@ public class MainActivity extends AppCompatActivity {
         searchButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                // The search is made now, so a pending search of the typed text is not needed.
+                mSearchHandler.removeCallbacks(mDebouncedSearch);
                 // Generate search URL.
                 URL searchUrl = makeSearchUrl();
                 if (searchUrl != null) {
@@ -125,9 +264,8 @@ public class MainActivity extends AppCompatActivity {
                     imm.hideSoftInputFromWindow(
                             (getCurrentFocus() != null) ? getCurrentFocus().getWindowToken() : null,
                             InputMethodManager.HIDE_NOT_ALWAYS);
-                    // Execute an AsyncTask to get book info.
-                    QueryAsyncTask queryTask = new QueryAsyncTask();
-                    queryTask.execute(searchUrl);
+                    // Execute an AsyncTask to get the first page of book info.
+                    mSearchFragment.search(mSearchText.getText().toString());
                 }
             }
         });
@@ -135,22 +273,21 @@ public class MainActivity extends AppCompatActivity {
         // Set an onEditorActionListener for the search query EditText.
         // It generates the search URL and if all OK, it hides the virtual keyboard and executes an
         // AsyncTask that downloads Book information.
-        TextInputEditText searchText = (TextInputEditText) findViewById(R.id.search_text);
-        searchText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+        mSearchText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
             @Override
             public boolean onEditorAction(TextView textView, int i, KeyEvent keyEvent) {
                 boolean ret = false;
                 // If the search button is pressed
                 if (i == EditorInfo.IME_ACTION_SEARCH) {
+                    mSearchHandler.removeCallbacks(mDebouncedSearch);
                     // Generate URL
                     URL searchUrl = makeSearchUrl();
                     if (searchUrl != null) {
                         // Hide the virtual keyboard
                         InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
                         imm.hideSoftInputFromWindow((getCurrentFocus() != null) ? getCurrentFocus().getWindowToken() : null, InputMethodManager.HIDE_NOT_ALWAYS);
-                        // Execute an AsyncTask to get book info.
-                        QueryAsyncTask queryTask = new QueryAsyncTask();
-                        queryTask.execute(searchUrl);
+                        // Execute an AsyncTask to get the first page of book info.
+                        mSearchFragment.search(mSearchText.getText().toString());
                     }
                     ret = true;
                 }
@@ -158,17 +295,177 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        // Add a TextWatcher to the search query EditText.
+        // Every change restarts the wait, so the text is searched for once the user pauses
+        // instead of after every keystroke. It is added after the text restored with the saved
+        // state, so that the restored text is not searched for again.
+        mSearchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mSearchHandler.removeCallbacks(mDebouncedSearch);
+                mSearchHandler.postDelayed(mDebouncedSearch, SEARCH_DEBOUNCE_MILLIS);
+            }
+        });
+    }
+
+    /**
+     * Runs a task once the next frame of the activity has been drawn. The task is posted from the
+     * pre-draw pass, so that it runs after the frame instead of delaying it.
+     *
+     * @param task the task to run
+     */
+    private void runAfterNextFrame(final Runnable task) {
+        mBookListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mBookListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        mFrameHandler.post(task);
+                        return true;
+                    }
+                });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        return true;
     }
 
     @Override
-    protected void onSaveInstanceState(Bundle outState) {
-        // Include the last JSON response in the saved state.
-        outState.putString("JSON Response", mJsonResponse);
-        super.onSaveInstanceState(outState);
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.search_mode).setChecked(mSearchFragment.isSearchByField());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.search_mode:
+                // The current text is searched for again in the new way.
+                mSearchFragment.setSearchByField(!mSearchFragment.isSearchByField());
+                item.setChecked(mSearchFragment.isSearchByField());
+                return true;
+            case R.id.action_show_metrics:
+                new MetricsReportTask(this, false)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                return true;
+            case R.id.action_dump_metrics:
+                new MetricsReportTask(this, true)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
     }
 
     /**
-     * Generates a {@link URL} based on the text entered in the search {@link TextInputEditText}.
+     * Returns the metrics of the hot paths together with the statistics of the caches. The sizes
+     * of the caches are read from the disk and the database, so it is not called on the main
+     * thread.
+     *
+     * @param appContext the application context
+     * @return the report as text
+     */
+    private static String getMetricsReport(Context appContext) {
+        return Metrics.getInstance().dump()
+                + "Image cache: " + ImageCache.getInstance(appContext) + "\n"
+                + "Image bandwidth: " + BandwidthMeter.getInstance() + "\n"
+                + "Response cache: " + ResponseCache.getInstance(appContext).size() + " bytes\n"
+                + "Book index: " + BookIndex.getInstance(appContext).size() + " books\n";
+    }
+
+    /**
+     * Writes the metrics report to the log and to a file in the external files directory of the
+     * application, from where it can be pulled with adb.
+     *
+     * @param appContext the application context
+     * @param report     the metrics report
+     * @return the file written or null if it could not be written
+     */
+    @Nullable
+    private static File dumpMetrics(Context appContext, String report) {
+        Log.i(LOG_TAG, report);
+        File directory = appContext.getExternalFilesDir(null);
+        if (directory == null) {
+            // The external storage is not available.
+            directory = appContext.getFilesDir();
+        }
+        File file = new File(directory, "metrics-" + System.currentTimeMillis() + ".txt");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            outputStream.write(report.getBytes(Charset.forName("UTF-8")));
+            return file;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error while writing metrics", e);
+            return null;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error while closing metrics file", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mSearchHandler.removeCallbacks(mDebouncedSearch);
+        mFrameHandler.removeCallbacksAndMessages(null);
+        // The thumbnails being downloaded for the rows are kept for the next instance after a
+        // rotation. The searches are cancelled by the fragment when the user leaves.
+        if (mPrefetcher != null) {
+            mPrefetcher.detach(mBookListView, isChangingConfigurations());
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onBooksReplaced(List<Book> books, boolean scrollToTop) {
+        if (mAdapter == null) {
+            // These are the first books of this instance, such as the restored ones.
+            showBookList();
+            return;
+        }
+        mAdapter.setBooks(books);
+        // A search without matches leaves the list empty.
+        mInstructionsText.setVisibility(books.isEmpty() ? View.VISIBLE : View.INVISIBLE);
+        if (scrollToTop) {
+            mBookListView.scrollToPosition(0);
+        }
+    }
+
+    @Override
+    public void onBooksAppended(List<Book> books) {
+        if (mAdapter == null) {
+            showBookList();
+            return;
+        }
+        mAdapter.appendBooks(books);
+        mInstructionsText.setVisibility(View.INVISIBLE);
+    }
+
+    @Override
+    public void onOfflineResults() {
+        // Tell the user that the network could not be reached and the books found earlier are
+        // shown.
+        Toast.makeText(this, getString(R.string.offline_results), Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Generates a {@link URL} for the first page of results based on the text entered in the
+     * search {@link TextInputEditText}.
      *
      * @return the {@link URL} that is to be used to get book information.
      */
@@ -176,206 +473,83 @@ public class MainActivity extends AppCompatActivity {
         //Get the text given by the user.
         TextInputEditText searchEditText = (TextInputEditText) findViewById(R.id.search_text);
         String queryText = searchEditText.getText().toString();
-        URL url;
         // If no text is given, inform the user and return early.
         if (TextUtils.isEmpty(queryText.trim())) {
             Toast.makeText(this, getString(R.string.enter_valid_query), Toast.LENGTH_SHORT).show();
             return null;
-        } else {
-            // Replace spaces in the search query with %20 to prevent conversion errors.
-            String[] partsOfQueryText = queryText.split(" ");
-            queryText = "";
-            for (String partOfQueryText : partsOfQueryText) {
-                queryText += partOfQueryText + "%20";
-            }
-            // Create the URL. In case of an exception print a message in the log and return early.
-            try {
-                url = new URL(BOOK_SEARCH_URL + queryText);
-            } catch (MalformedURLException exception) {
-                Log.e(LOG_TAG, "Error while making URL", exception);
-                return null;
-            }
         }
-        // If all Ok return the generated URL.
-        return url;
+        return SearchFragment.makeSearchUrl(queryText, 0);
     }
 
     /**
-     * Extracts an {@link ArrayList} of {@link Book} objects from the {@link JSONObject} generated
-     * by the {@link QueryAsyncTask} that will be used to populate the {@link ListView} in the
-     * {@link MainActivity}
-     *
-     * @return an {@link ArrayList} of {@link Book} objects
+     * An {@link AsyncTask} that opens the caches and the index of the books in the background
+     * after the first frame, so that the first search and the first thumbnails do not wait for
+     * the disk. Reading their sizes reads the cache directories and opens the database.
      */
-    @Nullable
-    private ArrayList<Book> extractBookList() {
-        ArrayList<Book> bookList = new ArrayList<>();
-        try {
-            // Create a JSONObject from the previously obtained response.
-            JSONObject jsonResponse;
-            if (mJsonResponse != null) {
-                jsonResponse = new JSONObject(mJsonResponse);
-            } else {
-                // If no response available return early
-                return null;
-            }
-            // Create a JSONArray from the that includes all the books.
-            JSONArray bookListJSON = jsonResponse.getJSONArray("items");
-            // For each element of the array get the details needed.
-            if (bookListJSON != null) {
-                for (int i = 0; i < bookListJSON.length(); i++) {
-                    JSONObject currentBookJSON = bookListJSON.getJSONObject(i);
-                    JSONObject volumeInfo = currentBookJSON.getJSONObject("volumeInfo");
-                    // Get the title of the book
-                    String title = volumeInfo.getString("title");
-                    // Get the array of authors.
-                    JSONArray authorListJSON = volumeInfo.optJSONArray("authors");
-                    ArrayList<String> authorList = new ArrayList<>();
-                    if (authorListJSON != null) {
-                        for (int j = 0; j < authorListJSON.length(); j++) {
-                            String author = authorListJSON.getString(j);
-                            authorList.add(author);
-                        }
-                    }
-                    // Get the preview URL for the book.
-                    String previewUrl = volumeInfo.getString("previewLink");
-                    // Get the thumbnail image's URL.
-                    JSONObject imageLinks = volumeInfo.optJSONObject("imageLinks");
-                    String imageUrl;
-                    if (imageLinks != null) {
-                        imageUrl = imageLinks.optString("smallThumbnail");
-                    } else {
-                        imageUrl = null;
-                    }
-                    //Get the description for the book
-                    JSONObject searchInfo = currentBookJSON.optJSONObject("searchInfo");
-                    String description;
-                    if (searchInfo != null) {
-                        description = searchInfo.optString("textSnippet");
-                    } else {
-                        description = volumeInfo.optString("description");
-                    }
-                    // Add the book in the return ArrayList.
-                    bookList.add(new Book(title, authorList, description, previewUrl, imageUrl));
-                }
-            }
-        } catch (JSONException e) {
-            // In case of an exception print a message in the log and return early.
-            Log.e(LOG_TAG, "Error while handling JSON", e);
+    private static class WarmUpTask extends AsyncTask<Void, Void, Void> {
+
+        private final Context mAppContext;
+
+        WarmUpTask(Context appContext) {
+            mAppContext = appContext;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            ImageCache.getInstance(mAppContext).getDiskSize();
+            ResponseCache.getInstance(mAppContext).size();
+            BookIndex.getInstance(mAppContext).size();
             return null;
         }
-        // Return the array of books.
-        return bookList;
     }
 
     /**
-     * An {@link AsyncTask} that gets a {@link URL} form which it downloads information and
-     * gives an {@link ArrayList} of {@link Book} objects.
+     * An {@link AsyncTask} that builds the metrics report in the background, then shows it in a
+     * dialog or writes it to a file and tells where. Nothing is shown if the activity is gone by
+     * then.
      */
-    private class QueryAsyncTask extends AsyncTask<URL, Void, ArrayList<Book>> {
-
-        @Override
-        protected ArrayList<Book> doInBackground(URL... urls) {
+    private static class MetricsReportTask extends AsyncTask<Void, Void, String> {
 
-            String jsonResponse = "";
-
-            try {
-                jsonResponse = makeHttpRequestForJson(urls[0]);
-            } catch (IOException e) {
-                Log.e(LOG_TAG, "Error while making HTTP request", e);
-            }
-
-            mJsonResponse = jsonResponse;
-
-            return extractBookList();
-        }
+        private final Context mAppContext;
+        private final WeakReference<MainActivity> mActivityRef;
+        private final boolean mDump;
 
         /**
-         * Open an {@link HttpURLConnection} from where it downloads a JSON response that
-         * includes information about book
-         *
-         * @param url to be used for the connection
-         * @return a {@link String} object with JSON data
-         * @throws IOException
+         * @param activity the activity that shows the report
+         * @param dump     whether the report is written to a file rather than shown
          */
-        private String makeHttpRequestForJson(URL url) throws IOException {
-            String jsonResponse = "";
-
-            if (url == null) {
-                return jsonResponse;
-            }
-
-            HttpURLConnection urlConnection = null;
-            InputStream inputStream = null;
-
-            try {
-                // Set up the connection
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestMethod("GET");
-                urlConnection.setReadTimeout(10000);
-                urlConnection.setConnectTimeout(15000);
-                urlConnection.connect();
-                // If the connection is successful read the response from the InputStream if the
-                // connection.
-                if (urlConnection.getResponseCode() == 200) {
-                    inputStream = urlConnection.getInputStream();
-                    jsonResponse = readFromInputStream(inputStream);
-                } else {
-                    // If an error code is returned, print a message in the log and return early.
-                    Log.e(MainActivity.LOG_TAG, "HTTP error " +
-                            urlConnection.getResponseCode());
-                    return null;
-                }
-            } catch (IOException e) {
-                // If an exception occurs print a message in the log and return early.
-                Log.e(LOG_TAG, "Error while attempting HTTP connection", e);
-                return null;
-            } finally {
-                //Close the connection
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-                }
-                if (inputStream != null) {
-                    inputStream.close();
-                }
-            }
-            // Return the obtained response.
-            return jsonResponse;
+        MetricsReportTask(MainActivity activity, boolean dump) {
+            mAppContext = activity.getApplicationContext();
+            mActivityRef = new WeakReference<>(activity);
+            mDump = dump;
         }
 
-        /**
-         * Reads the lines of the given {@link InputStream}
-         *
-         * @param inputStream the {@link InputStream} from where to read.
-         * @return a {@link String} with the contents of the given {@link InputStream}
-         * @throws IOException
-         */
-        @NonNull
-        private String readFromInputStream(InputStream inputStream) throws IOException {
-
-            StringBuilder output = new StringBuilder();
-
-            if (inputStream != null) {
-                InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-                BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-                String line = bufferedReader.readLine();
-                while (line != null) {
-                    output.append(line);
-                    line = bufferedReader.readLine();
-                }
-                bufferedReader.close();
+        @Override
+        protected String doInBackground(Void... voids) {
+            String report = getMetricsReport(mAppContext);
+            if (mDump) {
+                // The path of the file is shown instead of the report.
+                File file = dumpMetrics(mAppContext, report);
+                return file != null ? file.getAbsolutePath() : null;
             }
-            return output.toString();
+            return report;
         }
 
         @Override
-        protected void onPostExecute(ArrayList<Book> bookArrayList) {
-            super.onPostExecute(bookArrayList);
-            if (bookArrayList != null) {
-                mBookList = bookArrayList;
-                mAdapter = new BookAdapter(getApplicationContext(), mBookList);
-                mBookListView.setAdapter(mAdapter);
-                mInstructionsText.setVisibility(View.INVISIBLE);
+        protected void onPostExecute(String result) {
+            MainActivity activity = mActivityRef.get();
+            if (activity == null || activity.isFinishing() || result == null) {
+                return;
+            }
+            if (mDump) {
+                Toast.makeText(activity, activity.getString(R.string.metrics_dumped, result),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                new AlertDialog.Builder(activity)
+                        .setTitle(R.string.metrics_title)
+                        .setMessage(result)
+                        .setPositiveButton(android.R.string.ok, null)
+                        .show();
             }
         }
     }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Receives the memory signals of the system for the whole application and decides how much of
+ * the memory held by caches and derived data should be kept. The holders of that memory
+ * register as {@link Trimmable} and are told the share they may keep. They only give up what
+ * can be rebuilt, and rebuild it lazily when it is needed again, so nothing else changes once
+ * the pressure is over.
+ * The signals arrive on the main thread.
+ */
+public class MemoryBudget implements ComponentCallbacks2 {
+
+    /**
+     * Memory that can be given back to the system
+     */
+    public interface Trimmable {
+        /**
+         * Called when the system is low on memory
+         *
+         * @param keepPercent the share of its memory that may be kept, from 0 to 100
+         */
+        void trimMemory(int keepPercent);
+    }
+
+    private static MemoryBudget sInstance = null;
+
+    private final List<Trimmable> mTrimmables = new CopyOnWriteArrayList<>();
+    private final Metrics mMetrics;
+
+    /**
+     * Returns the single instance of the budget, registering it for the memory signals of the
+     * application if needed
+     *
+     * @param context any {@link Context} of the application
+     * @return the shared {@link MemoryBudget}
+     */
+    public static synchronized MemoryBudget getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MemoryBudget(Metrics.getInstance());
+            context.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor for the class
+     *
+     * @param metrics the {@link Metrics} where the trims are counted
+     */
+    MemoryBudget(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Adds a holder of memory that is trimmed with every signal
+     *
+     * @param trimmable the {@link Trimmable}
+     */
+    public void register(Trimmable trimmable) {
+        mTrimmables.add(trimmable);
+    }
+
+    /**
+     * Removes a holder of memory that is going away
+     *
+     * @param trimmable the {@link Trimmable}
+     */
+    public void unregister(Trimmable trimmable) {
+        mTrimmables.remove(trimmable);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int keepPercent = keepPercentFor(level);
+        if (keepPercent == 100) {
+            return;
+        }
+        mMetrics.increment(Metrics.MEMORY_TRIMS);
+        for (Trimmable trimmable : mTrimmables) {
+            trimmable.trimMemory(keepPercent);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        // Sent before API 14 only, when every background process has already been killed.
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Returns the share of the trimmable memory that is kept at a trim level.
+     * While the application is in the foreground the share shrinks as the pressure grows. When
+     * its UI is just hidden the user often comes back soon, so only a little is given back. Once
+     * the process is in the background less is kept, and it is all given back when the process
+     * is next in line to be killed, which may keep it alive.
+     *
+     * @param level the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     * @return the share to keep, from 0 to 100
+     */
+    static int keepPercentFor(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 0;
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 25;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 75;
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 25;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 50;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 75;
+        }
+        return 100;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters of the hot paths of the application: the stages of an HTTP
+ * request, the parsing of search responses, the download and decoding of thumbnails and the
+ * binding of rows. They tell a slow network apart from slow code.
+ * All the methods are thread safe and cheap enough to be called on every request and bind.
+ */
+public class Metrics {
+
+    /**
+     * The stages of an HTTP request. The connect time covers the DNS lookup and the TCP and TLS
+     * handshakes of a new connection, and is close to nothing when a pooled connection is reused.
+     * The body time ends when the response is closed, so it includes the work done by the caller
+     * while the body is being read.
+     * Every attempt of a retried request is counted as a request, and the requests refused by an
+     * open circuit are counted apart.
+     */
+    public static final String HTTP_CONNECT = "http.connect";
+    public static final String HTTP_FIRST_BYTE = "http.first_byte";
+    public static final String HTTP_BODY = "http.body";
+    public static final String HTTP_REQUESTS = "http.requests";
+    public static final String HTTP_BYTES = "http.bytes";
+    public static final String HTTP_ERRORS = "http.errors";
+    public static final String HTTP_RETRIES = "http.retries";
+    public static final String HTTP_REJECTED = "http.rejected";
+
+    /**
+     * The whole search of a page, the parsing of its response, the searches served from the
+     * response cache and the searches of the on-device index. A response from the network is
+     * parsed while it arrives, so its parse time includes waiting for the body.
+     * A page searched by field is made of several requests at the same time, the page time lasts
+     * until the last of them is shown. A search that joins an identical one in flight is counted
+     * as coalesced.
+     */
+    public static final String SEARCH_TOTAL = "search.total";
+    public static final String SEARCH_PARSE = "search.parse";
+    public static final String SEARCH_CACHED = "search.cached";
+    public static final String SEARCH_ERRORS = "search.errors";
+    public static final String SEARCH_LOCAL = "search.local";
+    public static final String SEARCH_PAGE = "search.page";
+    public static final String SEARCH_COALESCED = "search.coalesced";
+
+    /**
+     * The download and the decoding of thumbnails, and the sharper thumbnails downloaded to
+     * replace small ones that are already shown
+     */
+    public static final String IMAGE_NETWORK = "image.network";
+    public static final String IMAGE_DECODE = "image.decode";
+    public static final String IMAGE_ERRORS = "image.errors";
+    public static final String IMAGE_UPGRADES = "image.upgrades";
+
+    /**
+     * The binding of a row of the result list
+     */
+    public static final String LIST_BIND = "list.bind";
+
+    /**
+     * The trims of the caches asked for by the system when it is low on memory
+     */
+    public static final String MEMORY_TRIMS = "memory.trims";
+
+    /**
+     * The creation of the main activity until its first frame is drawn, and until its list is
+     * drawn with the books it starts with, or ready for a search when there are none. A cold
+     * start has no saved state, a restore follows a rotation or a restart of the process. The
+     * start of the process itself is not included.
+     */
+    public static final String STARTUP_COLD_FIRST_FRAME = "startup.cold.first_frame";
+    public static final String STARTUP_COLD_POPULATED = "startup.cold.populated";
+    public static final String STARTUP_RESTORE_FIRST_FRAME = "startup.restore.first_frame";
+    public static final String STARTUP_RESTORE_POPULATED = "startup.restore.populated";
+
+    private static Metrics sInstance = null;
+
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+    private final long mStartMillis = System.currentTimeMillis();
+
+    /**
+     * Returns the metrics of the application
+     *
+     * @return the shared {@link Metrics}
+     */
+    public static synchronized Metrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new Metrics();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records the time elapsed since the given start
+     *
+     * @param name       the name of the histogram
+     * @param startNanos the start, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince(String name, long startNanos) {
+        record(name, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a duration
+     *
+     * @param name  the name of the histogram
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(String name, long nanos) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = mHistograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Adds one to a counter
+     *
+     * @param name the name of the counter
+     */
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Adds to a counter
+     *
+     * @param name  the name of the counter
+     * @param delta the amount to add
+     */
+    public void add(String name, long delta) {
+        AtomicLong counter = mCounters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = mCounters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Returns the value of a counter
+     *
+     * @param name the name of the counter
+     * @return the value, 0 if nothing has been counted
+     */
+    public long getCount(String name) {
+        AtomicLong counter = mCounters.get(name);
+        return (counter == null) ? 0 : counter.get();
+    }
+
+    /**
+     * Returns a histogram
+     *
+     * @param name the name of the histogram
+     * @return the {@link Histogram} or null if nothing has been recorded
+     */
+    public Histogram getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    /**
+     * Forgets everything recorded so far
+     */
+    public void reset() {
+        mHistograms.clear();
+        mCounters.clear();
+    }
+
+    /**
+     * Writes all the histograms and counters as text, one per line, sorted by name
+     *
+     * @return the text
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Uptime: ")
+                .append(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - mStartMillis))
+                .append(" s\n");
+        List<String> names = new ArrayList<>(mHistograms.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            builder.append(name).append(": ").append(mHistograms.get(name)).append('\n');
+        }
+        names = new ArrayList<>(mCounters.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            builder.append(name).append(": ").append(mCounters.get(name).get()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A histogram of durations with fixed buckets that grow exponentially from 50 microseconds to
+     * 10 seconds. Percentiles are reported as the upper bound of their bucket.
+     */
+    public static class Histogram {
+
+        /**
+         * The upper bounds of the buckets in microseconds. Longer durations go to an extra last
+         * bucket.
+         */
+        private static final long[] BUCKET_BOUNDS_MICROS = {
+                50, 100, 200, 500,
+                1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000,
+                1000000, 2000000, 5000000, 10000000
+        };
+
+        private final long[] mBucketCounts = new long[BUCKET_BOUNDS_MICROS.length + 1];
+        private long mCount = 0;
+        private long mSumMicros = 0;
+        private long mMaxMicros = 0;
+
+        /**
+         * Records a duration
+         *
+         * @param nanos the duration in nanoseconds
+         */
+        public synchronized void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            mBucketCounts[bucket]++;
+            mCount++;
+            mSumMicros += micros;
+            mMaxMicros = Math.max(mMaxMicros, micros);
+        }
+
+        /**
+         * Returns the number of recorded durations
+         *
+         * @return the count
+         */
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the mean of the recorded durations
+         *
+         * @return the mean in microseconds
+         */
+        public synchronized long getMeanMicros() {
+            return (mCount == 0) ? 0 : mSumMicros / mCount;
+        }
+
+        /**
+         * Returns the longest recorded duration
+         *
+         * @return the maximum in microseconds
+         */
+        public synchronized long getMaxMicros() {
+            return mMaxMicros;
+        }
+
+        /**
+         * Returns the upper bound of the bucket that holds the given percentile
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the duration in microseconds, the maximum for the last bucket
+         */
+        public synchronized long getPercentileMicros(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * mCount);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_BOUNDS_MICROS.length; bucket++) {
+                seen += mBucketCounts[bucket];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MICROS[bucket], mMaxMicros);
+                }
+            }
+            return mMaxMicros;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "count " + mCount + ", mean " + formatMicros(getMeanMicros())
+                    + ", p50 " + formatMicros(getPercentileMicros(50))
+                    + ", p90 " + formatMicros(getPercentileMicros(90))
+                    + ", p99 " + formatMicros(getPercentileMicros(99))
+                    + ", max " + formatMicros(mMaxMicros);
+        }
+
+        private static String formatMicros(long micros) {
+            if (micros < 1000) {
+                return micros + " us";
+            }
+            return (micros / 1000) + " ms";
+        }
+    }
+}
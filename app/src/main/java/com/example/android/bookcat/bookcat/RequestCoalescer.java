@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes identical requests that are in flight at the same time only once, and gives all their
+ * callers the same result. A request is identified by a key, for example the text of a search
+ * and its page.
+ * A request runs on a thread of the coalescer while its callers wait for it, so that a caller
+ * that gives up does not stop it for the others. It is only cancelled once every caller has
+ * given up. A request that has finished is forgotten, so the next caller makes it again.
+ *
+ * @param <V> the type of the result
+ */
+public class RequestCoalescer<V> {
+
+    /**
+     * A request that can be shared
+     *
+     * @param <V> the type of the result
+     */
+    public interface Request<V> {
+        /**
+         * Makes the request
+         *
+         * @return the result
+         * @throws IOException if the request fails
+         */
+        V execute() throws IOException;
+
+        /**
+         * Stops the request from another thread, once no caller is waiting for it any more
+         */
+        void cancel();
+    }
+
+    /**
+     * The threads of the requests. A request must never wait behind the callers waiting for it.
+     */
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    /**
+     * The requests in flight by their key, guarded by the coalescer
+     */
+    private final Map<String, Call> mCalls = new HashMap<>();
+
+    /**
+     * Joins the request in flight with the given key, or starts the given request if there is
+     * none
+     *
+     * @param key     the key of the request
+     * @param request the {@link Request} made if no identical one is in flight
+     * @return the {@link Handle} through which the caller waits for the result
+     */
+    public synchronized Handle join(String key, Request<V> request) {
+        Call call = mCalls.get(key);
+        // A request that has just finished may not have been forgotten yet.
+        boolean coalesced = call != null && !call.isDone();
+        if (!coalesced) {
+            call = new Call(key, request);
+            mCalls.put(key, call);
+            mExecutor.execute(call);
+        }
+        call.mWaiters++;
+        return new Handle(call, coalesced);
+    }
+
+    /**
+     * Returns the number of requests in flight. A request that has just finished is not counted
+     * even if it has not been forgotten yet, since its callers may already have its result.
+     *
+     * @return the number of requests
+     */
+    public synchronized int getInFlightCount() {
+        int count = 0;
+        for (Call call : mCalls.values()) {
+            if (!call.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A request in flight and the number of callers waiting for it
+     */
+    private class Call extends FutureTask<V> {
+
+        private final String mKey;
+        private final Request<V> mRequest;
+        /**
+         * Guarded by the coalescer
+         */
+        private int mWaiters = 0;
+
+        Call(String key, final Request<V> request) {
+            super(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    return request.execute();
+                }
+            });
+            mKey = key;
+            mRequest = request;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (RequestCoalescer.this) {
+                if (mCalls.get(mKey) == this) {
+                    mCalls.remove(mKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * The share of a caller in a request
+     */
+    public class Handle {
+
+        private final Call mCall;
+        private final boolean mCoalesced;
+        /**
+         * Guarded by the coalescer
+         */
+        private boolean mCancelled = false;
+
+        private Handle(Call call, boolean coalesced) {
+            mCall = call;
+            mCoalesced = coalesced;
+        }
+
+        /**
+         * Tells whether the caller joined a request that was already in flight
+         *
+         * @return true if no new request was made for the caller
+         */
+        public boolean isCoalesced() {
+            return mCoalesced;
+        }
+
+        /**
+         * Waits for the result of the request. An interrupted caller gives up its share.
+         *
+         * @return the result
+         * @throws IOException if the request fails or is cancelled
+         */
+        public V get() throws IOException {
+            try {
+                return mCall.get();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for request");
+            } catch (CancellationException e) {
+                throw new InterruptedIOException("Request cancelled");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * Gives up the share of the caller. The request is cancelled if no other caller is
+         * waiting for it. It may be called from any thread, more than once.
+         */
+        public void cancel() {
+            synchronized (RequestCoalescer.this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                if (--mCall.mWaiters > 0) {
+                    return;
+                }
+                if (mCalls.get(mCall.mKey) == mCall) {
+                    mCalls.remove(mCall.mKey);
+                }
+            }
+            mCall.mRequest.cancel();
+            mCall.cancel(true);
+        }
+    }
+}
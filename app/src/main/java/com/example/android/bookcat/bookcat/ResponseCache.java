@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A size-bounded disk cache for the responses of book searches, keyed by the normalised text of
+ * the search and the index of the page.
+ * Responses younger than the time to live are used without contacting the server. Older ones are
+ * kept together with their ETag and Last-Modified headers, so that they can be revalidated with a
+ * conditional request. Entries are evicted in least recently used order once the total size
+ * exceeds the limit.
+ */
+public class ResponseCache {
+
+    private static final String LOG_TAG = "ResponseCache";
+
+    /**
+     * The default time for which a response is used without revalidation
+     */
+    private static final long DEFAULT_TIME_TO_LIVE_MILLIS = 15 * 60 * 1000;
+    /**
+     * The maximum size of the cache in bytes
+     */
+    private static final long CACHE_SIZE = 2 * 1024 * 1024;
+    private static final String CACHE_DIRECTORY = "responses";
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_STORED_AT = "storedAt";
+
+    private static ResponseCache sInstance = null;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final long mTimeToLiveMillis;
+    /**
+     * The size of the body of every entry by key, kept in access order
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize = 0;
+    private boolean mInitialised = false;
+
+    /**
+     * Returns the single instance of the cache, creating it if needed
+     *
+     * @param context any {@link Context} of the application
+     * @return the shared {@link ResponseCache}
+     */
+    public static synchronized ResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResponseCache(new File(
+                    context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY),
+                    CACHE_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Public constructor for the class.
+     * The directory is not read until the cache is first used.
+     *
+     * @param directory        the directory where the responses are stored
+     * @param maxSize          the maximum total size of the stored responses in bytes
+     * @param timeToLiveMillis the time for which a response is used without revalidation
+     */
+    public ResponseCache(File directory, long maxSize, long timeToLiveMillis) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mTimeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Generates the key of a page of search results. Searches that differ only in case or in
+     * white space share the same key. The responses of another address of the Books API, such
+     * as a stand-in server, have other keys.
+     *
+     * @param queryText  the text of the search
+     * @param startIndex the index of the first book of the page
+     * @return the key
+     */
+    public static String keyFor(String queryText, int startIndex) {
+        String normalised = queryText.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+        return hash(BookSearchUrl.getBaseUrl() + "\n" + normalised + "\n" + startIndex);
+    }
+
+    /**
+     * Looks up a stored response
+     *
+     * @param key the key of the response
+     * @return the {@link Entry} or null if there is no stored response
+     */
+    public synchronized Entry get(String key) {
+        initialise();
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+        Properties meta = new Properties();
+        InputStream metaStream = null;
+        try {
+            metaStream = new FileInputStream(metaFile(key));
+            meta.load(metaStream);
+            long storedAt = Long.parseLong(meta.getProperty(META_STORED_AT, "0"));
+            return new Entry(key, meta.getProperty(META_ETAG),
+                    meta.getProperty(META_LAST_MODIFIED), storedAt);
+        } catch (IOException | NumberFormatException e) {
+            Log.e(LOG_TAG, "Error while reading cached response", e);
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(metaStream);
+        }
+    }
+
+    /**
+     * Checks whether a stored response can be used without revalidation
+     *
+     * @param entry the stored {@link Entry}
+     * @return true if the response is younger than the time to live
+     */
+    public boolean isFresh(Entry entry) {
+        return currentTimeMillis() - entry.mStoredAt < mTimeToLiveMillis;
+    }
+
+    /**
+     * Opens the body of a stored response
+     *
+     * @param entry the stored {@link Entry}
+     * @return an {@link InputStream} of the body
+     * @throws IOException if the body can not be read
+     */
+    public InputStream openBody(Entry entry) throws IOException {
+        return new FileInputStream(bodyFile(entry.mKey));
+    }
+
+    /**
+     * Records that the server confirmed a stored response is still valid, which starts a new
+     * time to live for it
+     *
+     * @param entry the revalidated {@link Entry}
+     */
+    public synchronized void markRevalidated(Entry entry) {
+        writeMeta(entry.mKey, entry.mETag, entry.mLastModified);
+    }
+
+    /**
+     * Wraps the body of a new response so that it is stored while it is being read.
+     * The response is only added to the cache if {@link CachingInputStream#commit()} is called.
+     *
+     * @param key          the key of the response
+     * @param body         the {@link InputStream} of the body from the server
+     * @param eTag         the ETag header of the response, or null
+     * @param lastModified the Last-Modified header of the response, or null
+     * @return the {@link CachingInputStream} to be read instead of the body
+     */
+    public CachingInputStream cacheWhileReading(String key, InputStream body, String eTag,
+                                                String lastModified) {
+        synchronized (this) {
+            initialise();
+        }
+        return new CachingInputStream(key, body, eTag, lastModified);
+    }
+
+    /**
+     * Returns the current total size of the stored responses
+     *
+     * @return the size in bytes
+     */
+    public synchronized long size() {
+        initialise();
+        return mSize;
+    }
+
+    /**
+     * Returns the current time. Overridden by tests.
+     *
+     * @return the time in milliseconds
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a completely read body to the cache
+     */
+    private synchronized void commit(String key, File tempFile, String eTag,
+                                     String lastModified) {
+        File body = bodyFile(key);
+        if (!tempFile.renameTo(body)) {
+            tempFile.delete();
+            return;
+        }
+        writeMeta(key, eTag, lastModified);
+        Long previousSize = mEntries.put(key, body.length());
+        if (previousSize != null) {
+            mSize -= previousSize;
+        }
+        mSize += body.length();
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Writes the headers and the storing time of a response
+     */
+    private void writeMeta(String key, String eTag, String lastModified) {
+        Properties meta = new Properties();
+        if (eTag != null) {
+            meta.setProperty(META_ETAG, eTag);
+        }
+        if (lastModified != null) {
+            meta.setProperty(META_LAST_MODIFIED, lastModified);
+        }
+        meta.setProperty(META_STORED_AT, String.valueOf(currentTimeMillis()));
+        OutputStream metaStream = null;
+        try {
+            metaStream = new FileOutputStream(metaFile(key));
+            meta.store(metaStream, null);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error while writing cached response", e);
+        } finally {
+            closeQuietly(metaStream);
+        }
+    }
+
+    /**
+     * Reads the contents of the cache directory the first time the cache is used.
+     */
+    private void initialise() {
+        if (mInitialised) {
+            return;
+        }
+        mInitialised = true;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create cache directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Least recently stored first so that they are the first to be evicted.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                if (metaFile(key).exists()) {
+                    mEntries.put(key, file.length());
+                    mSize += file.length();
+                } else {
+                    file.delete();
+                }
+            } else if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Deletes the least recently used responses until the total size is within the given limit
+     */
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            bodyFile(eldest.getKey()).delete();
+            metaFile(eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes a single response from the cache
+     */
+    private void remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        bodyFile(key).delete();
+        metaFile(key).delete();
+    }
+
+    private File bodyFile(String key) {
+        return new File(mDirectory, key + BODY_SUFFIX);
+    }
+
+    private File metaFile(String key) {
+        return new File(mDirectory, key + META_SUFFIX);
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error while closing cache file", e);
+            }
+        }
+    }
+
+    /**
+     * Generates a hex encoded hash that is safe to use as a file name
+     */
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(text.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(text.hashCode());
+        }
+    }
+
+    /**
+     * A stored response
+     */
+    public static class Entry {
+
+        private final String mKey;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mStoredAt;
+
+        Entry(String key, String eTag, String lastModified, long storedAt) {
+            mKey = key;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mStoredAt = storedAt;
+        }
+
+        /**
+         * Returns the ETag header of the response
+         *
+         * @return the ETag or null if the server did not send one
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * Returns the Last-Modified header of the response
+         *
+         * @return the date or null if the server did not send one
+         */
+        public String getLastModified() {
+            return mLastModified;
+        }
+    }
+
+    /**
+     * An {@link InputStream} that copies everything read from the server into a temporary file
+     */
+    public class CachingInputStream extends FilterInputStream {
+
+        private final String mKey;
+        private final String mETag;
+        private final String mLastModified;
+        private final File mTempFile;
+        private OutputStream mOutput;
+
+        CachingInputStream(String key, InputStream body, String eTag, String lastModified) {
+            super(body);
+            mKey = key;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mTempFile = new File(mDirectory, key + "." + Thread.currentThread().getId()
+                    + TEMP_SUFFIX);
+            try {
+                mOutput = new FileOutputStream(mTempFile);
+            } catch (IOException e) {
+                // The response is still read, it is just not stored.
+                Log.e(LOG_TAG, "Error while creating cached response", e);
+                mOutput = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                write(new byte[]{(byte) value}, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes have to be stored too, so they are read instead.
+            byte[] buffer = new byte[(int) Math.min(count, 8192)];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads the rest of the body and adds the response to the cache
+         *
+         * @throws IOException if reading the rest of the body fails
+         */
+        public void commit() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Drain the body so that the stored copy is complete.
+            }
+            if (mOutput == null) {
+                return;
+            }
+            mOutput.close();
+            mOutput = null;
+            ResponseCache.this.commit(mKey, mTempFile, mETag, mLastModified);
+        }
+
+        /**
+         * Discards the stored copy, for example because the response could not be parsed
+         */
+        public void abort() {
+            closeQuietly(mOutput);
+            mOutput = null;
+            mTempFile.delete();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // A copy that was neither committed nor aborted is incomplete.
+            abort();
+            super.close();
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (mOutput == null) {
+                return;
+            }
+            try {
+                mOutput.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error while writing cached response", e);
+                abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,757 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A fragment without a view that runs the searches of the {@link MainActivity} and keeps their
+ * results. It is retained across configuration changes, so a search that is running when the
+ * device is rotated goes on and its results are delivered to the new activity, without a second
+ * request. The thumbnail prefetches are kept with it.
+ * The searches are only cancelled when the activity finishes. It must only be used from the main
+ * thread.
+ * When the system is low on memory the text formatted for the rows is dropped, and formatted
+ * again when the rows are bound.
+ * Only the first page of results is kept in the saved state, so that it stays small however far
+ * the list was scrolled. After the process was restarted the next pages are requested again as
+ * the list is scrolled, and read from the {@link ResponseCache} while it has them.
+ * Books read back from the saved state are formatted in the background before they are
+ * delivered, so that restoring the list does not delay the first frame of the activity.
+ */
+public class SearchFragment extends Fragment implements MemoryBudget.Trimmable {
+
+    /**
+     * The tag under which the fragment is added to the activity
+     */
+    public static final String TAG = "Search";
+
+    private static final String LOG_TAG = "SearchFragment";
+
+    /**
+     * The number of books requested with every page of results
+     */
+    static final int PAGE_SIZE = 20;
+
+    /**
+     * The keys of the search results and the paging position in the saved instance state
+     */
+    static final String STATE_BOOK_LIST = "Book List";
+    private static final String STATE_QUERY_TEXT = "Query Text";
+    static final String STATE_NEXT_START_INDEX = "Next Start Index";
+    private static final String STATE_QUERY_HAS_MORE = "Query Has More";
+    private static final String STATE_SEARCH_BY_FIELD = "Search By Field";
+
+    /**
+     * Receives the results of the searches. It is implemented by the activity the fragment is
+     * attached to. Results that arrive while no activity is attached are only kept.
+     */
+    public interface Callbacks {
+        /**
+         * Called when the books shown are replaced
+         *
+         * @param books       the books to show
+         * @param scrollToTop whether the books are the results of a new search, so that the list
+         *                    should be scrolled to the top
+         */
+        void onBooksReplaced(List<Book> books, boolean scrollToTop);
+
+        /**
+         * Called when books are added after the books shown
+         *
+         * @param books the added books
+         */
+        void onBooksAppended(List<Book> books);
+
+        /**
+         * Called when the network could not be reached and the books found earlier are shown
+         */
+        void onOfflineResults();
+    }
+
+    private Callbacks mCallbacks = null;
+    /**
+     * The application context, which outlives every activity the fragment is attached to
+     */
+    private Context mAppContext = null;
+
+    private ArrayList<Book> mBookList = new ArrayList<>();
+    /**
+     * The text of the current search and the index of its next page
+     */
+    private String mQueryText = null;
+    private int mNextStartIndex = 0;
+    private boolean mLoadingPage = false;
+    /**
+     * Whether a search is split into searches of the titles, the authors and the ISBNs
+     */
+    private boolean mSearchByField = false;
+    /**
+     * The texts of the requests that the current search is made of, one unless it is searched
+     * by field, and whether each of them has more pages
+     */
+    private List<String> mSearchQueries = Collections.emptyList();
+    private boolean[] mQueryHasMore = new boolean[0];
+    /**
+     * The number of books shown once the first page of the current search was loaded, and
+     * whether each of its requests had more pages then. They are what is saved in the instance
+     * state once the next pages are shown.
+     */
+    private int mFirstPageSize = 0;
+    private boolean[] mFirstPageHasMore = new boolean[0];
+    /**
+     * Merges the results of the requests of the page being loaded as they arrive. The books of
+     * the page start at the given position of the list. The page is loaded once one of its
+     * requests succeeded, and the requests that failed are marked.
+     */
+    private BookMerger mPageMerger = null;
+    private int mPageStart = 0;
+    private boolean mPageLoaded = false;
+    private boolean[] mPageFailed = new boolean[0];
+    private long mPageStartNanos = 0;
+    /**
+     * The matches from the index shown for the current search, or null
+     */
+    private ArrayList<Book> mLocalBooks = null;
+    /**
+     * Increased with every new search. Only the results of the latest search are applied.
+     */
+    private int mQueryGeneration = 0;
+    /**
+     * The tasks loading the current search or its next page, cancelled when a new search starts
+     */
+    private final List<QueryAsyncTask> mQueryTasks = new ArrayList<>();
+    /**
+     * The task searching the on-device index for the current search
+     */
+    private LocalSearchTask mLocalSearchTask = null;
+    /**
+     * The task formatting the books read back from the saved state, or null once they are
+     * delivered
+     */
+    private RestoreTask mRestoreTask = null;
+    /**
+     * The generation of the search whose matches from the index are shown, and of the search
+     * whose first page from the network is shown. The matches from the index are only shown
+     * until the network answers.
+     */
+    private int mLocalResultsGeneration = 0;
+    private int mNetworkResultsGeneration = 0;
+    private ThumbnailPrefetcher mPrefetcher = null;
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        mCallbacks = (Callbacks) context;
+        mAppContext = context.getApplicationContext();
+        if (mPrefetcher == null) {
+            mPrefetcher = new ThumbnailPrefetcher(ImageCache.getInstance(mAppContext));
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // Keep the searches running while the activity is recreated.
+        setRetainInstance(true);
+        MemoryBudget memoryBudget = MemoryBudget.getInstance(mAppContext);
+        memoryBudget.register(this);
+        memoryBudget.register(mPrefetcher);
+        // If the process was restarted, the results are read back from the saved state.
+        if (savedInstanceState != null) {
+            ArrayList<Book> bookList = savedInstanceState.getParcelableArrayList(STATE_BOOK_LIST);
+            if (bookList != null && !bookList.isEmpty()) {
+                mBookList = bookList;
+                mRestoreTask = new RestoreTask(bookList);
+                mRestoreTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+            mQueryText = savedInstanceState.getString(STATE_QUERY_TEXT);
+            mNextStartIndex = savedInstanceState.getInt(STATE_NEXT_START_INDEX);
+            mSearchByField = savedInstanceState.getBoolean(STATE_SEARCH_BY_FIELD);
+            if (mQueryText != null) {
+                mSearchQueries = makeSearchQueries(mQueryText);
+                boolean[] queryHasMore = savedInstanceState.getBooleanArray(STATE_QUERY_HAS_MORE);
+                mQueryHasMore = (queryHasMore != null
+                        && queryHasMore.length == mSearchQueries.size())
+                        ? queryHasMore : new boolean[mSearchQueries.size()];
+                mFirstPageHasMore = mQueryHasMore.clone();
+            }
+            mFirstPageSize = mBookList.size();
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // Include the parsed books of the first page in the saved state. Every further page
+        // would add to a transaction whose size is limited, and they can be requested again.
+        ArrayList<Book> savedBooks = mBookList;
+        int nextStartIndex = mNextStartIndex;
+        boolean[] queryHasMore = mQueryHasMore;
+        if (mNextStartIndex > PAGE_SIZE) {
+            savedBooks = new ArrayList<>(mBookList.subList(0,
+                    Math.min(mFirstPageSize, mBookList.size())));
+            nextStartIndex = PAGE_SIZE;
+            queryHasMore = mFirstPageHasMore;
+        }
+        outState.putParcelableArrayList(STATE_BOOK_LIST, savedBooks);
+        outState.putString(STATE_QUERY_TEXT, mQueryText);
+        outState.putInt(STATE_NEXT_START_INDEX, nextStartIndex);
+        outState.putBooleanArray(STATE_QUERY_HAS_MORE, queryHasMore);
+        outState.putBoolean(STATE_SEARCH_BY_FIELD, mSearchByField);
+    }
+
+    @Override
+    public void onDetach() {
+        // The activity is going away. Its replacement is attached if it is only being recreated.
+        mCallbacks = null;
+        super.onDetach();
+    }
+
+    @Override
+    public void onDestroy() {
+        // A retained fragment is only destroyed when the user leaves the activity, so the search
+        // and the prefetches are not needed any more.
+        MemoryBudget memoryBudget = MemoryBudget.getInstance(mAppContext);
+        memoryBudget.unregister(this);
+        memoryBudget.unregister(mPrefetcher);
+        mPrefetcher.cancelAll();
+        cancelQueryTasks();
+        if (mLocalSearchTask != null) {
+            mLocalSearchTask.cancel(false);
+            mLocalSearchTask = null;
+        }
+        if (mRestoreTask != null) {
+            mRestoreTask.cancel(false);
+            mRestoreTask = null;
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Drops the text formatted for the rows under memory pressure or once the application is in
+     * the background, but not when its UI is just hidden, so that coming back does not format
+     * it again.
+     */
+    @Override
+    public void trimMemory(int keepPercent) {
+        if (keepPercent <= 50) {
+            BookAdapter.releaseDisplayText(mBookList);
+        }
+    }
+
+    /**
+     * Returns the books found so far
+     *
+     * @return the books, which must not be changed
+     */
+    public ArrayList<Book> getBooks() {
+        return mBookList;
+    }
+
+    /**
+     * Tells whether the books read back from the saved state are still being prepared. They are
+     * delivered through {@link Callbacks#onBooksReplaced(List, boolean)} once they are ready.
+     *
+     * @return true if the books are not ready to be shown yet
+     */
+    public boolean isRestoring() {
+        return mRestoreTask != null;
+    }
+
+    /**
+     * Returns the text of the current search
+     *
+     * @return the text or null if nothing has been searched for yet
+     */
+    public String getQueryText() {
+        return mQueryText;
+    }
+
+    /**
+     * Returns the {@link ThumbnailPrefetcher} of the list, which is kept with the searches
+     *
+     * @return the prefetcher
+     */
+    public ThumbnailPrefetcher getPrefetcher() {
+        return mPrefetcher;
+    }
+
+    /**
+     * Tells whether a search is split into searches by field
+     *
+     * @return true if the titles, the authors and the ISBNs are searched separately
+     */
+    public boolean isSearchByField() {
+        return mSearchByField;
+    }
+
+    /**
+     * Turns the searches by field on or off, and searches for the current text again in the new
+     * way
+     *
+     * @param searchByField whether the titles, the authors and the ISBNs are searched separately
+     */
+    public void setSearchByField(boolean searchByField) {
+        mSearchByField = searchByField;
+        if (mQueryText != null) {
+            startQuery(0);
+        }
+    }
+
+    /**
+     * Starts a new search, which replaces the current one
+     *
+     * @param queryText the text of the search
+     */
+    public void search(String queryText) {
+        mQueryText = queryText;
+        startQuery(0);
+    }
+
+    /**
+     * Replaces the results with the given books, as if they had been found for the given text,
+     * without requesting them. It lets the startup benchmark restore a list without the network.
+     *
+     * @param queryText the text of the search
+     * @param books     the books found
+     */
+    void showBooks(String queryText, ArrayList<Book> books) {
+        mQueryGeneration++;
+        cancelQueryTasks();
+        mQueryText = queryText;
+        mSearchQueries = makeSearchQueries(queryText);
+        mQueryHasMore = new boolean[mSearchQueries.size()];
+        mNextStartIndex = books.size();
+        mFirstPageSize = Math.min(books.size(), PAGE_SIZE);
+        mFirstPageHasMore = mQueryHasMore.clone();
+        mBookList = books;
+        deliverBooks(true);
+    }
+
+    /**
+     * Requests the next page of the current search, unless it is already loading or the last
+     * page has been reached.
+     */
+    public void loadNextPage() {
+        if (mLoadingPage || !hasMorePages() || mQueryText == null) {
+            return;
+        }
+        startQuery(mNextStartIndex);
+    }
+
+    /**
+     * Generates a {@link URL} for a page of results of the given search text.
+     *
+     * @param queryText  the text of the search
+     * @param startIndex the index of the first book of the page
+     * @return the {@link URL} that is to be used to get book information.
+     */
+    static URL makeSearchUrl(String queryText, int startIndex) {
+        return BookSearchUrl.makeSearchUrl(queryText, startIndex, PAGE_SIZE);
+    }
+
+    /**
+     * Appends the books of a list that are not in another list yet, comparing their volume ids
+     *
+     * @param target the list to append to
+     * @param books  the books to append
+     * @return the appended books
+     */
+    static List<Book> appendNewBooks(List<Book> target, List<Book> books) {
+        Set<String> ids = new HashSet<>();
+        for (Book book : target) {
+            if (book.getId() != null) {
+                ids.add(book.getId());
+            }
+        }
+        List<Book> appended = new ArrayList<>();
+        for (Book book : books) {
+            if (book.getId() == null || ids.add(book.getId())) {
+                appended.add(book);
+            }
+        }
+        target.addAll(appended);
+        return appended;
+    }
+
+    /**
+     * Starts the {@link AsyncTask}s that download a page of book information, one for every
+     * request of the search. They run on the thread pool at the same time, so that the page takes
+     * as long as its slowest request, and never wait behind other AsyncTasks. A new search cancels
+     * the tasks of the previous one, including responses that are still being read, and also
+     * searches the {@link BookIndex}.
+     *
+     * @param startIndex the index of the first book of the page
+     */
+    private void startQuery(int startIndex) {
+        if (startIndex == 0) {
+            // A new search starts from its first page and replaces the previous search.
+            mQueryGeneration++;
+            cancelQueryTasks();
+            mSearchQueries = makeSearchQueries(mQueryText);
+            mQueryHasMore = new boolean[mSearchQueries.size()];
+            Arrays.fill(mQueryHasMore, true);
+            mNextStartIndex = 0;
+            mFirstPageSize = 0;
+            mFirstPageHasMore = mQueryHasMore.clone();
+            // Show the books fetched before that match the search while the network is asked.
+            mLocalBooks = null;
+            if (mLocalSearchTask != null) {
+                mLocalSearchTask.cancel(false);
+            }
+            mLocalSearchTask = new LocalSearchTask(mQueryText, mQueryGeneration);
+            mLocalSearchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        // The books of the page go after the books already shown, or replace them.
+        List<Book> shownBooks = (startIndex == 0) ? Collections.<Book>emptyList() : mBookList;
+        mPageMerger = new BookMerger(shownBooks);
+        mPageStart = shownBooks.size();
+        mPageLoaded = false;
+        mPageFailed = new boolean[mSearchQueries.size()];
+        mPageStartNanos = System.nanoTime();
+        for (int i = 0; i < mSearchQueries.size(); i++) {
+            if (!mQueryHasMore[i]) {
+                continue;
+            }
+            URL searchUrl = makeSearchUrl(mSearchQueries.get(i), startIndex);
+            if (searchUrl != null) {
+                QueryAsyncTask task = new QueryAsyncTask(mSearchQueries.get(i), i, startIndex,
+                        mQueryGeneration);
+                mQueryTasks.add(task);
+                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, searchUrl);
+            }
+        }
+        mLoadingPage = !mQueryTasks.isEmpty();
+    }
+
+    /**
+     * Cancels the tasks of the current search
+     */
+    private void cancelQueryTasks() {
+        for (QueryAsyncTask task : mQueryTasks) {
+            task.cancelRequest();
+        }
+        mQueryTasks.clear();
+        mLoadingPage = false;
+    }
+
+    /**
+     * Returns the texts of the requests that a search is made of
+     *
+     * @param queryText the text of the search
+     * @return the text itself, or the texts of the searches by field if they are turned on
+     */
+    private List<String> makeSearchQueries(String queryText) {
+        if (mSearchByField) {
+            List<String> fieldQueries = BookSearchUrl.makeFieldQueries(queryText);
+            if (!fieldQueries.isEmpty()) {
+                return fieldQueries;
+            }
+        }
+        return Collections.singletonList(queryText);
+    }
+
+    /**
+     * Tells whether a request may have more pages after the given one. The API often returns
+     * fewer books than were asked for while more results follow, and the partial response
+     * leaves out the total, so only an empty page, past the last result, ends a request.
+     *
+     * @param page the books of a page of the request
+     * @return true if the next page should be requested
+     */
+    static boolean hasPagesAfter(List<Book> page) {
+        return !page.isEmpty();
+    }
+
+    /**
+     * Tells whether any request of the current search has more pages
+     *
+     * @return true if there are more pages
+     */
+    private boolean hasMorePages() {
+        for (boolean hasMore : mQueryHasMore) {
+            if (hasMore) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the books shown by the attached activity, if there is one
+     *
+     * @param scrollToTop whether the list should be scrolled to the top
+     */
+    private void deliverBooks(boolean scrollToTop) {
+        if (mCallbacks != null) {
+            mCallbacks.onBooksReplaced(mBookList, scrollToTop);
+        }
+    }
+
+    /**
+     * Tells the attached activity, if there is one, that the books found earlier are shown
+     */
+    private void deliverOfflineResults() {
+        if (mCallbacks != null) {
+            mCallbacks.onOfflineResults();
+        }
+    }
+
+    /**
+     * An {@link AsyncTask} that formats the books read back from the saved state for the rows,
+     * since the formatted text is not saved with them, and then delivers them. A search started
+     * in the meantime has replaced them, so the current books are delivered instead.
+     */
+    private class RestoreTask extends AsyncTask<Void, Void, Void> {
+
+        private final List<Book> mRestoredBooks;
+
+        RestoreTask(List<Book> restoredBooks) {
+            mRestoredBooks = restoredBooks;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            BookAdapter.prepareDisplayText(mRestoredBooks);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            super.onPostExecute(result);
+            mRestoreTask = null;
+            deliverBooks(false);
+        }
+    }
+
+    /**
+     * An {@link AsyncTask} that searches the {@link BookIndex} for the books fetched before.
+     * Its matches are shown until the first page of the same search arrives from the network.
+     */
+    private class LocalSearchTask extends AsyncTask<Void, Void, ArrayList<Book>> {
+
+        private final String mTaskQueryText;
+        private final int mGeneration;
+
+        LocalSearchTask(String queryText, int generation) {
+            mTaskQueryText = queryText;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected ArrayList<Book> doInBackground(Void... voids) {
+            BookIndex bookIndex = BookIndex.getInstance(mAppContext);
+            ArrayList<Book> bookList = bookIndex.search(mTaskQueryText, PAGE_SIZE);
+            if (!isCancelled()) {
+                BookAdapter.prepareDisplayText(bookList);
+            }
+            return bookList;
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<Book> bookArrayList) {
+            super.onPostExecute(bookArrayList);
+            mLocalSearchTask = null;
+            // Ignore matches of a replaced search, or of a search the network has answered.
+            if (mGeneration != mQueryGeneration || mGeneration == mNetworkResultsGeneration
+                    || bookArrayList.isEmpty()) {
+                return;
+            }
+            mPrefetcher.cancelAll();
+            mLocalResultsGeneration = mGeneration;
+            mLocalBooks = bookArrayList;
+            mBookList = new ArrayList<>(bookArrayList);
+            deliverBooks(true);
+            if (mQueryTasks.isEmpty()) {
+                // The network requests have already failed.
+                deliverOfflineResults();
+            }
+        }
+    }
+
+    /**
+     * An {@link AsyncTask} that gets a {@link URL} form which it downloads information and
+     * gives an {@link ArrayList} of {@link Book} objects.
+     */
+    private class QueryAsyncTask extends AsyncTask<URL, Void, ArrayList<Book>> {
+
+        /**
+         * The text of the request, its position among the requests of the search and the index
+         * of the first book of the requested page
+         */
+        private final String mTaskQueryText;
+        private final int mQueryIndex;
+        private final int mStartIndex;
+        /**
+         * The generation of the search this task belongs to
+         */
+        private final int mGeneration;
+        /**
+         * The share of the task in its request, which may be shared with an identical search,
+         * so that it can be given up from the main thread
+         */
+        private volatile RequestCoalescer<ArrayList<Book>>.Handle mRequest = null;
+
+        QueryAsyncTask(String queryText, int queryIndex, int startIndex, int generation) {
+            mTaskQueryText = queryText;
+            mQueryIndex = queryIndex;
+            mStartIndex = startIndex;
+            mGeneration = generation;
+        }
+
+        /**
+         * Cancels the task. Its request is stopped unless an identical search is waiting for it
+         * too.
+         */
+        void cancelRequest() {
+            cancel(true);
+            RequestCoalescer<ArrayList<Book>>.Handle request = mRequest;
+            if (request != null) {
+                request.cancel();
+            }
+        }
+
+        @Override
+        protected ArrayList<Book> doInBackground(URL... urls) {
+
+            if (isCancelled()) {
+                return null;
+            }
+
+            // Join an identical search in flight, such as the one of a double tap, or start it.
+            RequestCoalescer<ArrayList<Book>>.Handle request = BookSearchRequest.getCoalescer()
+                    .join(ResponseCache.keyFor(mTaskQueryText, mStartIndex),
+                            new BookSearchRequest(mAppContext, urls[0], mTaskQueryText,
+                                    mStartIndex));
+            mRequest = request;
+            if (request.isCoalesced()) {
+                Metrics.getInstance().increment(Metrics.SEARCH_COALESCED);
+            }
+            if (isCancelled()) {
+                request.cancel();
+                return null;
+            }
+            try {
+                return request.get();
+            } catch (IOException e) {
+                if (!isCancelled()) {
+                    Log.e(LOG_TAG, "Error while searching", e);
+                }
+                return null;
+            } finally {
+                mRequest = null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<Book> bookArrayList) {
+            super.onPostExecute(bookArrayList);
+            // Ignore results of a search that has been replaced by a newer one.
+            if (mGeneration != mQueryGeneration) {
+                return;
+            }
+            mQueryTasks.remove(this);
+            mLoadingPage = !mQueryTasks.isEmpty();
+            boolean localResultsShown = mLocalResultsGeneration == mGeneration;
+            if (bookArrayList != null) {
+                mQueryHasMore[mQueryIndex] = hasPagesAfter(bookArrayList);
+                showPageResults(bookArrayList, localResultsShown);
+            } else if (mStartIndex == 0) {
+                // A request whose first page failed is left out of the next pages.
+                mQueryHasMore[mQueryIndex] = false;
+            } else {
+                mPageFailed[mQueryIndex] = true;
+            }
+            if (!mLoadingPage) {
+                // This was the last request of the page.
+                Metrics.getInstance().recordSince(Metrics.SEARCH_PAGE, mPageStartNanos);
+                if (mPageLoaded) {
+                    // The next pages of a request that failed would leave a gap in its
+                    // results, so it is left out of them.
+                    for (int i = 0; i < mPageFailed.length; i++) {
+                        if (mPageFailed[i]) {
+                            mQueryHasMore[i] = false;
+                        }
+                    }
+                    mNextStartIndex = mStartIndex + PAGE_SIZE;
+                }
+                // Otherwise every request of the page failed. A failed first page ends the
+                // search, a later one is asked again by the next scroll.
+                if (mStartIndex == 0) {
+                    mFirstPageSize = mBookList.size();
+                    mFirstPageHasMore = mQueryHasMore.clone();
+                }
+                if (!mPageLoaded && mStartIndex == 0 && localResultsShown) {
+                    deliverOfflineResults();
+                }
+            }
+        }
+
+        /**
+         * Merges the results of this request with the results of the other requests of the
+         * page that have already arrived. A first page replaces the results, the next pages are
+         * appended to them. Books that are already shown are not shown twice.
+         *
+         * @param bookArrayList     the books of this request
+         * @param localResultsShown whether the matches from the index are shown
+         */
+        private void showPageResults(ArrayList<Book> bookArrayList, boolean localResultsShown) {
+            boolean firstResults = !mPageLoaded;
+            mPageLoaded = true;
+            mPageMerger.add(bookArrayList);
+            List<Book> pageBooks = mPageMerger.getBooks();
+            if (mStartIndex > 0 && firstResults) {
+                // Nothing of the page is shown yet, so its books are only appended.
+                mBookList.addAll(pageBooks);
+                if (mCallbacks != null) {
+                    mCallbacks.onBooksAppended(pageBooks);
+                }
+                return;
+            }
+            ArrayList<Book> books = new ArrayList<>(mBookList.subList(0, mPageStart));
+            books.addAll(pageBooks);
+            if (mStartIndex == 0) {
+                mNetworkResultsGeneration = mGeneration;
+                if (localResultsShown) {
+                    // The matches from the index that the server did not return follow the
+                    // network results.
+                    appendNewBooks(books, mLocalBooks);
+                } else if (firstResults) {
+                    // The thumbnails ahead of the old results are not needed any more.
+                    mPrefetcher.cancelAll();
+                }
+            }
+            mBookList = books;
+            // The list is only scrolled to the top when it shows a new search, not while the
+            // user may already be reading it.
+            deliverBooks(mStartIndex == 0 && firstResults && !localResultsShown);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+/**
+ * Chooses which thumbnail of a book is downloaded, from the size at which it is shown and the
+ * throughput measured by the {@link BandwidthMeter}.
+ * The small thumbnail is downloaded first unless the connection is known to be fast, so that
+ * something is shown quickly on a slow connection. Once it is shown, the larger thumbnail
+ * replaces it if the view is wider than the small thumbnail and the connection has turned out
+ * to be fast enough.
+ */
+public class ThumbnailChooser {
+
+    /**
+     * The width of the small thumbnails of the Google Books API in pixels. A view that is not
+     * wider gains nothing from the larger thumbnail.
+     */
+    static final int SMALL_THUMBNAIL_WIDTH = 80;
+    /**
+     * The throughput from which the larger thumbnails are downloaded. One of about 15 KB then
+     * takes a quarter of a second.
+     */
+    static final long FAST_BYTES_PER_SECOND = 64 * 1024;
+
+    private static final ThumbnailChooser sInstance =
+            new ThumbnailChooser(BandwidthMeter.getInstance());
+
+    private final BandwidthMeter mBandwidthMeter;
+
+    /**
+     * Returns the chooser shared by all the thumbnails
+     *
+     * @return the shared {@link ThumbnailChooser}
+     */
+    public static ThumbnailChooser getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Constructor for the class
+     *
+     * @param bandwidthMeter the {@link BandwidthMeter} of the downloads
+     */
+    ThumbnailChooser(BandwidthMeter bandwidthMeter) {
+        mBandwidthMeter = bandwidthMeter;
+    }
+
+    /**
+     * Returns the thumbnail to download first for a book
+     *
+     * @param book        the {@link Book}
+     * @param targetWidth the width at which the thumbnail is shown in pixels
+     * @return the URL of the thumbnail, or null or an empty {@link String} if it has none
+     */
+    public String chooseImageUrl(Book book, int targetWidth) {
+        String imageUrl = book.getImageUrl();
+        String largeImageUrl = book.getLargeImageUrl();
+        if (isEmpty(imageUrl)) {
+            // The larger thumbnail is the only one.
+            return isEmpty(largeImageUrl) ? imageUrl : largeImageUrl;
+        }
+        return isWorthUpgrading(book, targetWidth) ? largeImageUrl : imageUrl;
+    }
+
+    /**
+     * Returns the thumbnail to download after another one of the same book has been shown
+     *
+     * @param book        the {@link Book}
+     * @param shownUrl    the URL of the thumbnail that is shown
+     * @param targetWidth the width at which the thumbnail is shown in pixels
+     * @return the URL of a sharper thumbnail, or null if the shown one is kept
+     */
+    public String chooseUpgradeUrl(Book book, String shownUrl, int targetWidth) {
+        if (shownUrl == null || !shownUrl.equals(book.getImageUrl())
+                || !isWorthUpgrading(book, targetWidth)) {
+            return null;
+        }
+        return book.getLargeImageUrl();
+    }
+
+    /**
+     * Tells whether the larger thumbnail of a book would look sharper and arrive soon enough
+     *
+     * @param book        the {@link Book}
+     * @param targetWidth the width at which the thumbnail is shown in pixels
+     * @return true if the larger thumbnail should be shown
+     */
+    private boolean isWorthUpgrading(Book book, int targetWidth) {
+        return !isEmpty(book.getLargeImageUrl()) && targetWidth > SMALL_THUMBNAIL_WIDTH
+                && mBandwidthMeter.getBytesPerSecond() >= FAST_BYTES_PER_SECOND;
+    }
+
+    private static boolean isEmpty(String url) {
+        return url == null || url.isEmpty();
+    }
+}
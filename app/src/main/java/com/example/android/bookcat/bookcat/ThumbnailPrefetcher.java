@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.bookcat.bookcat;
+
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.ImageView;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Watches the scrolling of the list of results and downloads the thumbnails of the rows that are
+ * about to be shown, in the direction of the scroll, at a low priority.
+ * A row that is bound while its thumbnail is being prefetched takes the running download over,
+ * so that the image is never downloaded twice.
+ * Prefetching stops when the user reverses the direction of the scroll and pauses for a while
+ * when the device is low on memory.
+ * The prefetcher outlives the activity: the list of every new activity is attached to it, and
+ * the downloads of the rows of an activity that is recreated are kept for the rows of the next
+ * one. It must only be used from the main thread.
+ */
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener
+        implements MemoryBudget.Trimmable {
+
+    /**
+     * The number of rows past the visible ones whose thumbnails are prefetched
+     */
+    private static final int PREFETCH_ROWS = 6;
+    /**
+     * How long prefetching stays paused after the system reports low memory
+     */
+    private static final long LOW_MEMORY_PAUSE_MILLIS = 30 * 1000;
+
+    private final ImageCache mImageCache;
+    /**
+     * The adapter and the layout manager of the list of the current activity, or null while no
+     * list is attached
+     */
+    private BookAdapter mAdapter = null;
+    private LinearLayoutManager mLayoutManager = null;
+    /**
+     * The running prefetches by the URL of their image
+     */
+    private final Map<String, DownloadImageTask> mPrefetches = new HashMap<>();
+    /**
+     * The direction of the last scroll, 1 towards the end of the list and -1 towards its start
+     */
+    private int mDirection = 0;
+    private long mPausedUntil = 0;
+
+    /**
+     * Public constructor for the class
+     *
+     * @param imageCache the {@link ImageCache} shared with the adapters
+     */
+    public ThumbnailPrefetcher(ImageCache imageCache) {
+        mImageCache = imageCache;
+    }
+
+    /**
+     * Starts prefetching for the list of a new activity. The prefetcher must also be added to
+     * the list as a scroll listener and set on the adapter.
+     *
+     * @param adapter       the {@link BookAdapter} of the list
+     * @param layoutManager the {@link LinearLayoutManager} of the list
+     */
+    public void attach(BookAdapter adapter, LinearLayoutManager layoutManager) {
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        mDirection = 0;
+    }
+
+    /**
+     * Stops prefetching for the list of an activity that is going away. When the activity is
+     * only being recreated, the downloads of its visible rows are kept as prefetches, so that
+     * the rows of the next activity take them over instead of downloading the images again.
+     *
+     * @param recyclerView the list
+     * @param recreating   whether the activity is being recreated
+     */
+    public void detach(RecyclerView recyclerView, boolean recreating) {
+        recyclerView.removeOnScrollListener(this);
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            ImageView imageView = (ImageView) recyclerView.getChildAt(i)
+                    .findViewById(R.id.book_image_view);
+            DownloadImageTask task = DownloadImageTask.unbind(imageView);
+            if (task == null) {
+                continue;
+            }
+            String url = task.getUrl();
+            if (!recreating || url == null || mPrefetches.containsKey(url)) {
+                task.cancel(true);
+            } else {
+                mPrefetches.put(url, task);
+            }
+        }
+        mAdapter = null;
+        mLayoutManager = null;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0 || mAdapter == null) {
+            return;
+        }
+        int direction = (dy > 0) ? 1 : -1;
+        if (direction != mDirection) {
+            // The rows ahead of the old direction are not going to be shown soon.
+            boolean reversed = mDirection != 0;
+            mDirection = direction;
+            cancelAll();
+            if (reversed) {
+                // Wait for the new direction to be confirmed by the next scroll.
+                return;
+            }
+        }
+        if (SystemClock.uptimeMillis() < mPausedUntil) {
+            return;
+        }
+        ImageView sampleView = findSampleView(recyclerView);
+        int firstVisible = mLayoutManager.findFirstVisibleItemPosition();
+        int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+        if (sampleView == null || firstVisible == RecyclerView.NO_POSITION) {
+            return;
+        }
+        removeFinished();
+        int itemCount = mAdapter.getItemCount();
+        for (int i = 1; i <= PREFETCH_ROWS; i++) {
+            int position = (direction > 0) ? lastVisible + i : firstVisible - i;
+            if (position < 0 || position >= itemCount) {
+                break;
+            }
+            prefetch(mAdapter.getItem(position), sampleView);
+        }
+    }
+
+    /**
+     * Returns the running prefetch of an image, so that a row being bound can take it over.
+     * A prefetch that is still queued is cancelled instead, because the row downloads the image
+     * at a higher priority.
+     *
+     * @param url the URL of the image
+     * @return the running {@link DownloadImageTask} or null
+     */
+    public DownloadImageTask claim(String url) {
+        DownloadImageTask task = mPrefetches.remove(url);
+        if (task == null || task.getStatus() == DownloadImageTask.Status.FINISHED
+                || task.isCancelled()) {
+            return null;
+        }
+        if (!task.hasStarted()) {
+            task.cancel(true);
+            return null;
+        }
+        return task;
+    }
+
+    /**
+     * Cancels all the running prefetches
+     */
+    public void cancelAll() {
+        for (DownloadImageTask task : mPrefetches.values()) {
+            task.cancel(true);
+        }
+        mPrefetches.clear();
+    }
+
+    /**
+     * Called when the system asks the application to use less memory. Prefetched images would
+     * push the images on screen out of the memory cache, so prefetching is paused.
+     *
+     * @param keepPercent the share of the memory to keep, from 0 to 100
+     */
+    @Override
+    public void trimMemory(int keepPercent) {
+        if (keepPercent <= 50) {
+            cancelAll();
+            mPausedUntil = SystemClock.uptimeMillis() + LOW_MEMORY_PAUSE_MILLIS;
+        }
+    }
+
+    /**
+     * Starts prefetching the thumbnail of a book that its row would download, unless it is
+     * already in memory or on its way
+     *
+     * @param book       the {@link Book}
+     * @param sampleView an {@link ImageView} of a visible row
+     */
+    private void prefetch(Book book, ImageView sampleView) {
+        String url = ThumbnailChooser.getInstance().chooseImageUrl(book,
+                DownloadImageTask.targetWidthFor(sampleView));
+        if (url == null || url.isEmpty() || mPrefetches.containsKey(url)
+                || mImageCache.isInMemory(url) || mImageCache.isInMemory(book.getLargeImageUrl())) {
+            return;
+        }
+        mPrefetches.put(url, DownloadImageTask.prefetch(url, sampleView, mImageCache));
+    }
+
+    /**
+     * Forgets the prefetches that have finished, their images are in the cache now
+     */
+    private void removeFinished() {
+        Iterator<DownloadImageTask> iterator = mPrefetches.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getStatus() == DownloadImageTask.Status.FINISHED) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the thumbnail view of a visible row, which has the size of every thumbnail
+     *
+     * @param recyclerView the list
+     * @return the {@link ImageView} or null if no row is shown
+     */
+    private static ImageView findSampleView(RecyclerView recyclerView) {
+        View row = recyclerView.getChildAt(0);
+        return (row != null) ? (ImageView) row.findViewById(R.id.book_image_view) : null;
+    }
+}
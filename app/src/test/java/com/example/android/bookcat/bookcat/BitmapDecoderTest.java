@@ -0,0 +1,34 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the choice of sample size in {@link BitmapDecoder}
+ */
+public class BitmapDecoderTest {
+
+    @Test
+    public void sampleSize_keepsImageAtLeastAsWideAsView() {
+        // A 128 px wide thumbnail shown in a 60 px wide view only needs half its width.
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(128, 192, 60, 0));
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(1280, 1920, 300, 0));
+    }
+
+    @Test
+    public void sampleSize_isOneWhenViewIsLargerThanImage() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(128, 192, 200, 0));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(128, 192, 100, 0));
+    }
+
+    @Test
+    public void sampleSize_isOneWhenViewSizeIsUnknown() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(1280, 1920, 0, 0));
+    }
+
+    @Test
+    public void sampleSize_respectsBothDimensions() {
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(1000, 1000, 100, 400));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the FTS query that {@link BookIndex} builds from the text of a search. The query itself is
+ * run against SQLite by the instrumented tests.
+ */
+public class BookIndexQueryTest {
+
+    @Test
+    public void everyWord_isAQuotedPrefix() {
+        assertEquals("\"tolk*\" \"hob*\"", BookIndex.toMatchExpression("tolk hob"));
+    }
+
+    @Test
+    public void operators_areSearchedAsWords() {
+        assertEquals("\"war*\" \"AND*\" \"peace*\"",
+                BookIndex.toMatchExpression("war AND peace"));
+    }
+
+    @Test
+    public void punctuation_separatesWords() {
+        assertEquals("\"O*\" \"Brian*\"", BookIndex.toMatchExpression("  O'Brian, "));
+        assertNull(BookIndex.toMatchExpression(" -- "));
+        assertNull(BookIndex.toMatchExpression(null));
+    }
+
+    @Test
+    public void longSearches_keepTheFirstWords() {
+        assertEquals("\"a*\" \"b*\" \"c*\" \"d*\" \"e*\" \"f*\" \"g*\" \"h*\"",
+                BookIndex.toMatchExpression("a b c d e f g h i j"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the objects kept by search results held as {@link Book} objects, compared with the
+ * mutable bean that books used to be, and checks the compact storage of authors
+ */
+public class BookMemoryTest {
+
+    private static final int BOOK_COUNT = 20000;
+    /**
+     * The number of different author names, so that names repeat across books like they do in
+     * the results of a search
+     */
+    private static final int AUTHOR_COUNT = 300;
+
+    @Test
+    public void authors_areSharedAcrossBooks() {
+        Book first = newBook(1);
+        Book second = newBook(1 + AUTHOR_COUNT);
+        assertEquals(first.getAuthors().get(0), second.getAuthors().get(0));
+        assertSame(first.getAuthors().get(0), second.getAuthors().get(0));
+    }
+
+    @Test
+    public void authors_keepTheirOrder() {
+        List<String> authors = new ArrayList<>();
+        authors.add("First");
+        authors.add("Second");
+        authors.add("Third");
+        Book book = new Book("id", "Title", authors, "", "preview", null);
+        assertEquals(authors, book.getAuthors());
+        assertEquals("First, Second, Third", Book.formatAuthorList(book.getAuthors()));
+        assertTrue(new Book("id", "Title", new ArrayList<String>(), "", "preview", null)
+                .getAuthors().isEmpty());
+    }
+
+    @Test
+    public void compactBooks_keepFewerObjects() throws IllegalAccessException {
+        Object[] legacyBooks = new Object[BOOK_COUNT];
+        Object[] compactBooks = new Object[BOOK_COUNT];
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            legacyBooks[i] = newLegacyBook(i);
+            compactBooks[i] = newBook(i);
+        }
+        int legacyObjects = keptObjects(legacyBooks);
+        int compactObjects = keptObjects(compactBooks);
+        assertTrue("Objects kept: mutable bean " + legacyObjects + ", compact book "
+                + compactObjects, compactObjects < legacyObjects);
+    }
+
+    /**
+     * Counts the distinct objects kept by the given books, following the fields of their classes
+     * and the elements of lists and arrays. An object held by several books, like a shared
+     * author, is counted once. A list is counted with the array that backs it.
+     */
+    private static int keptObjects(Object[] books) throws IllegalAccessException {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Deque<Object> pending = new ArrayDeque<>(Arrays.asList(books));
+        int backingArrays = 0;
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (!seen.add(object) || object instanceof String) {
+                continue;
+            }
+            if (object instanceof List) {
+                backingArrays++;
+                addAll(pending, ((List<?>) object).toArray());
+            } else if (object instanceof Object[]) {
+                addAll(pending, (Object[]) object);
+            } else {
+                for (Field field : object.getClass().getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())
+                            || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    Object value = field.get(object);
+                    if (value != null) {
+                        pending.push(value);
+                    }
+                }
+            }
+        }
+        return seen.size() + backingArrays;
+    }
+
+    private static void addAll(Deque<Object> pending, Object[] objects) {
+        for (Object object : objects) {
+            if (object != null) {
+                pending.push(object);
+            }
+        }
+    }
+
+    private static Book newBook(int index) {
+        return new Book("volume" + index, title(index), authors(index), description(index),
+                previewUrl(index), imageUrl(index));
+    }
+
+    private static LegacyBook newLegacyBook(int index) {
+        return new LegacyBook(title(index), authors(index), description(index),
+                previewUrl(index), imageUrl(index));
+    }
+
+    private static String title(int index) {
+        return "Title of book " + index;
+    }
+
+    /**
+     * Most books have one author, some two or three. Every name is a new {@link String}, like
+     * the ones read from a response.
+     */
+    private static ArrayList<String> authors(int index) {
+        int count = (index % 10 < 7) ? 1 : (index % 10 < 9) ? 2 : 3;
+        ArrayList<String> authors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            authors.add(new StringBuilder("Author number ").append((index + i) % AUTHOR_COUNT)
+                    .toString());
+        }
+        return authors;
+    }
+
+    private static String description(int index) {
+        return "A description of book " + index + " that is about as long as the text snippets"
+                + " returned by the search, with a <b>few</b> words of styling.";
+    }
+
+    private static String previewUrl(int index) {
+        return "http://books.google.com/books?id=volume" + index + "&printsec=frontcover";
+    }
+
+    private static String imageUrl(int index) {
+        return "http://books.google.com/books/content?id=volume" + index
+                + "&printsec=frontcover&img=1&zoom=5&source=gbs_api";
+    }
+
+    /**
+     * The mutable bean that books used to be
+     */
+    private static class LegacyBook {
+        private String mTitle;
+        private ArrayList<String> mAuthors;
+        private String mDescription;
+        private String mPreviewUrl;
+        private String mImageUrl;
+
+        LegacyBook(String title, ArrayList<String> authors, String description, String previewUrl,
+                   String imageUrl) {
+            mTitle = title;
+            mAuthors = authors;
+            mDescription = description;
+            mPreviewUrl = previewUrl;
+            mImageUrl = imageUrl;
+        }
+    }
+}
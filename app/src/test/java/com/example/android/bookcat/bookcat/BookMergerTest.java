@@ -0,0 +1,96 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the merging of the results of the searches by field by the {@link BookMerger}
+ */
+public class BookMergerTest {
+
+    @Test
+    public void singleSearch_keepsItsOrder() {
+        BookMerger merger = new BookMerger(Collections.<Book>emptyList());
+        merger.add(books("a", "b", "c"));
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(merger.getBooks()));
+    }
+
+    @Test
+    public void bookFoundBySeveralSearches_isListedOnceAndRanksFirst() {
+        BookMerger merger = new BookMerger(Collections.<Book>emptyList());
+        merger.add(books("a", "b", "c"));
+        merger.add(books("d", "e", "c"));
+
+        assertEquals(Arrays.asList("c", "a", "d", "b", "e"), ids(merger.getBooks()));
+    }
+
+    @Test
+    public void order_doesNotDependOnArrivalOfRankedBooks() {
+        BookMerger titleFirst = new BookMerger(Collections.<Book>emptyList());
+        titleFirst.add(books("a", "b"));
+        titleFirst.add(books("b", "c"));
+        BookMerger authorFirst = new BookMerger(Collections.<Book>emptyList());
+        authorFirst.add(books("b", "c"));
+        authorFirst.add(books("a", "b"));
+
+        assertEquals(ids(titleFirst.getBooks()).get(0), ids(authorFirst.getBooks()).get(0));
+        assertEquals("b", ids(titleFirst.getBooks()).get(0));
+    }
+
+    @Test
+    public void shownBooks_areLeftOut() {
+        BookMerger merger = new BookMerger(books("a"));
+        merger.add(books("a", "b"));
+
+        assertEquals(Collections.singletonList("b"), ids(merger.getBooks()));
+    }
+
+    @Test
+    public void booksWithoutId_areKept() {
+        BookMerger merger = new BookMerger(Collections.<Book>emptyList());
+        merger.add(books(null, "a"));
+        merger.add(books((String) null));
+
+        assertEquals(Arrays.asList(null, null, "a"), ids(merger.getBooks()));
+    }
+
+    @Test
+    public void fieldQueries_restrictEveryWord() {
+        assertEquals(Arrays.asList("intitle:the intitle:hobbit", "inauthor:the inauthor:hobbit"),
+                BookSearchUrl.makeFieldQueries("  the   hobbit "));
+        assertEquals(Collections.<String>emptyList(), BookSearchUrl.makeFieldQueries("  "));
+    }
+
+    @Test
+    public void fieldQueries_searchIsbnOnlyWhenTheCheckDigitIsRight() {
+        assertEquals("isbn:9780261103344",
+                BookSearchUrl.makeFieldQueries("978-0-261-10334-4").get(2));
+        assertEquals("isbn:080442957X", BookSearchUrl.makeFieldQueries("0 8044 2957 x").get(2));
+        assertEquals(2, BookSearchUrl.makeFieldQueries("9780261103345").size());
+        assertEquals(2, BookSearchUrl.makeFieldQueries("1234567890").size());
+    }
+
+    private static List<Book> books(String... ids) {
+        List<Book> books = new ArrayList<>();
+        for (String id : ids) {
+            books.add(new Book(id, "Title " + id, Collections.singletonList("Author"), null,
+                    null, null));
+        }
+        return books;
+    }
+
+    private static List<String> ids(List<Book> books) {
+        List<String> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.android.bookcat.bookcat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the bytes on the wire and the connections opened for one screen of search results,
+ * against a local server that stands in for the Google Books API.
+ */
+public class HttpFetcherTest {
+
+    private static final int BOOKS_PER_SCREEN = 10;
+    private static final int THUMBNAIL_SIZE = 4 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HttpServer mServer;
+    private ExecutorService mServerThreads;
+    /**
+     * The client ports seen by the server. Every new port is a new connection, and so a new
+     * handshake.
+     */
+    private final Set<Integer> mClientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicLong mBodyBytesSent = new AtomicLong();
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/books/v1/volumes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean partial = exchange.getRequestURI().getQuery().contains("fields=");
+                byte[] body = searchResponse(partial).getBytes(UTF_8);
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    body = gzip(body);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                send(exchange, body);
+            }
+        });
+        mServer.createContext("/thumbnail", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Images are already compressed, so they are always sent as they are.
+                send(exchange, new byte[THUMBNAIL_SIZE]);
+            }
+        });
+        mServerThreads = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerThreads);
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+        mServerThreads.shutdownNow();
+    }
+
+    @Test
+    public void searchScreen_usesFewerBytesAndHandshakes() throws IOException {
+        loadScreenWithDisconnect();
+        long disconnectBytes = mBodyBytesSent.getAndSet(0);
+        int disconnectConnections = mClientPorts.size();
+        mClientPorts.clear();
+
+        Metrics metrics = new Metrics();
+        HttpFetcher fetcher = new HttpFetcher(metrics);
+        loadScreenWithFetcher(fetcher);
+        long fetcherBytes = mBodyBytesSent.get();
+        int fetcherConnections = mClientPorts.size();
+
+        assertEquals(fetcherBytes, fetcher.getBytesReceived());
+        assertEquals(1 + BOOKS_PER_SCREEN, fetcher.getRequestCount());
+        assertEquals(1 + BOOKS_PER_SCREEN,
+                metrics.getHistogram(Metrics.HTTP_FIRST_BYTE).getCount());
+        assertEquals(1 + BOOKS_PER_SCREEN, metrics.getHistogram(Metrics.HTTP_BODY).getCount());
+        assertEquals(1 + BOOKS_PER_SCREEN, disconnectConnections);
+        assertEquals(1, fetcherConnections);
+        assertTrue(fetcherBytes < disconnectBytes);
+    }
+
+    @Test
+    public void compressedBody_isDecompressed() throws IOException {
+        HttpFetcher.Response response = new HttpFetcher().get(searchUrl(true), null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+            assertEquals(searchResponse(true), new String(readAll(response.getBody()), UTF_8));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Loads a screen the way the application did before, with the whole volume resources, no
+     * compression and a disconnect after every request
+     */
+    private void loadScreenWithDisconnect() throws IOException {
+        downloadAndDisconnect(searchUrl(false));
+        for (int i = 0; i < BOOKS_PER_SCREEN; i++) {
+            downloadAndDisconnect(thumbnailUrl(i));
+        }
+    }
+
+    private void loadScreenWithFetcher(HttpFetcher fetcher) throws IOException {
+        fetchAndClose(fetcher, searchUrl(true));
+        for (int i = 0; i < BOOKS_PER_SCREEN; i++) {
+            fetchAndClose(fetcher, thumbnailUrl(i));
+        }
+    }
+
+    private static void downloadAndDisconnect(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        InputStream inputStream = connection.getInputStream();
+        readAll(inputStream);
+        // The same order as the finally blocks of the original requests.
+        connection.disconnect();
+        inputStream.close();
+    }
+
+    private static void fetchAndClose(HttpFetcher fetcher, URL url) throws IOException {
+        HttpFetcher.Response response = fetcher.get(url, null);
+        try {
+            readAll(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
+
+    private URL searchUrl(boolean partial) throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/books/v1/volumes?q=tolkien&startIndex=0&maxResults=" + BOOKS_PER_SCREEN
+                + (partial ? "&fields=items(volumeInfo(title))" : ""));
+    }
+
+    private URL thumbnailUrl(int index) throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/thumbnail/" + index);
+    }
+
+    private void send(HttpExchange exchange, byte[] body) throws IOException {
+        mClientPorts.add(exchange.getRemoteAddress().getPort());
+        mBodyBytesSent.addAndGet(body.length);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    /**
+     * Builds a search response in the format of the Google Books API
+     *
+     * @param partial whether only the fields of a {@link Book} are included
+     */
+    private static String searchResponse(boolean partial) {
+        StringBuilder json = new StringBuilder("{");
+        if (!partial) {
+            json.append("\"kind\":\"books#volumes\",\"totalItems\":1460,");
+        }
+        json.append("\"items\":[");
+        for (int i = 0; i < BOOKS_PER_SCREEN; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('{');
+            if (!partial) {
+                json.append("\"kind\":\"books#volume\",\"id\":\"volume").append(i)
+                        .append("\",\"etag\":\"etag").append(i)
+                        .append("\",\"selfLink\":\"https://www.googleapis.com/books/v1/volumes/")
+                        .append("volume").append(i).append("\",");
+            }
+            json.append("\"volumeInfo\":{\"title\":\"Book ").append(i)
+                    .append("\",\"authors\":[\"Author ").append(i).append("\"],");
+            if (!partial) {
+                json.append("\"publisher\":\"Publisher\",\"publishedDate\":\"1937\",")
+                        .append("\"industryIdentifiers\":[{\"type\":\"ISBN_13\",")
+                        .append("\"identifier\":\"978100000000").append(i).append("\"}],")
+                        .append("\"readingModes\":{\"text\":true,\"image\":true},")
+                        .append("\"pageCount\":200,\"printType\":\"BOOK\",")
+                        .append("\"categories\":[\"Fiction\"],\"maturityRating\":\"NOT_MATURE\",")
+                        .append("\"language\":\"en\",\"infoLink\":\"http://books.google.com/")
+                        .append("books?id=volume").append(i).append("&source=gbs_api\",");
+            }
+            json.append("\"description\":\"A description of book ").append(i).append(".\",")
+                    .append("\"previewLink\":\"http://books.google.com/books?id=volume")
+                    .append(i).append("&printsec=frontcover\",")
+                    .append("\"imageLinks\":{\"smallThumbnail\":\"http://books.google.com/")
+                    .append("books/content?id=volume").append(i).append("&zoom=5\"}},");
+            if (!partial) {
+                json.append("\"saleInfo\":{\"country\":\"GB\",\"saleability\":\"NOT_FOR_SALE\",")
+                        .append("\"isEbook\":false},\"accessInfo\":{\"country\":\"GB\",")
+                        .append("\"viewability\":\"PARTIAL\",\"embeddable\":true,")
+                        .append("\"publicDomain\":false,\"epub\":{\"isAvailable\":false},")
+                        .append("\"pdf\":{\"isAvailable\":false}},");
+            }
+            json.append("\"searchInfo\":{\"textSnippet\":\"A snippet of book ").append(i)
+                    .append(".\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+        gzipOutput.write(data);
+        gzipOutput.close();
+        return output.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+            output.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.android.bookcat.bookcat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the retries and the circuit breaking of the {@link HttpFetcher} and the
+ * {@link RequestCoalescer} against a local server that injects failures and latency
+ */
+public class HttpResilienceTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BODY = "{\"items\":[]}";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 4;
+
+    /**
+     * A failure injected into the next response of the server
+     */
+    private enum Fault {
+        SERVICE_UNAVAILABLE, TOO_MANY_REQUESTS_FOR_A_MINUTE, DROPPED_CONNECTION, NOT_FOUND
+    }
+
+    private HttpServer mServer;
+    private ExecutorService mServerThreads;
+    /**
+     * The failures of the next responses, a successful response is sent once there are none
+     */
+    private final Queue<Fault> mFaults = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile boolean mAlwaysFail = false;
+    private volatile long mLatencyMillis = 0;
+    private Metrics mMetrics;
+    private HttpFetcher mFetcher;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/books/v1/volumes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestCount.incrementAndGet();
+                sleep(mLatencyMillis);
+                Fault fault = mAlwaysFail ? Fault.SERVICE_UNAVAILABLE : mFaults.poll();
+                if (fault == null) {
+                    send(exchange, 200, BODY);
+                    return;
+                }
+                switch (fault) {
+                    case SERVICE_UNAVAILABLE:
+                        send(exchange, 503, "unavailable");
+                        break;
+                    case TOO_MANY_REQUESTS_FOR_A_MINUTE:
+                        exchange.getResponseHeaders().set("Retry-After", "60");
+                        send(exchange, 429, "slow down");
+                        break;
+                    case DROPPED_CONNECTION:
+                        exchange.close();
+                        break;
+                    case NOT_FOUND:
+                        send(exchange, 404, "not found");
+                        break;
+                }
+            }
+        });
+        mServerThreads = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerThreads);
+        mServer.start();
+        mMetrics = new Metrics();
+        mFetcher = new HttpFetcher(mMetrics, MAX_ATTEMPTS, 10, CIRCUIT_FAILURE_THRESHOLD,
+                60 * 1000);
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+        mServerThreads.shutdownNow();
+    }
+
+    @Test
+    public void serverErrors_areRetried() throws IOException {
+        mFaults.add(Fault.SERVICE_UNAVAILABLE);
+        mFaults.add(Fault.SERVICE_UNAVAILABLE);
+
+        assertEquals(BODY, fetch());
+        assertEquals(3, mRequestCount.get());
+        assertEquals(2, mMetrics.getCount(Metrics.HTTP_RETRIES));
+    }
+
+    @Test
+    public void droppedConnections_areRetried() throws IOException {
+        // HttpURLConnection may also retry a dropped connection by itself, so the attempts of
+        // the fetcher are not counted.
+        mFaults.add(Fault.DROPPED_CONNECTION);
+        mFaults.add(Fault.DROPPED_CONNECTION);
+
+        assertEquals(BODY, fetch());
+        assertEquals(3, mRequestCount.get());
+    }
+
+    @Test
+    public void lastFailure_isReturned() throws IOException {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            mFaults.add(Fault.SERVICE_UNAVAILABLE);
+        }
+
+        HttpFetcher.Response response = mFetcher.get(searchUrl(), null);
+        response.close();
+        assertEquals(503, response.getCode());
+        assertEquals(MAX_ATTEMPTS, mRequestCount.get());
+    }
+
+    @Test
+    public void clientErrorsAndLongRetryAfter_areNotRetried() throws IOException {
+        mFaults.add(Fault.NOT_FOUND);
+        mFaults.add(Fault.TOO_MANY_REQUESTS_FOR_A_MINUTE);
+
+        HttpFetcher.Response notFound = mFetcher.get(searchUrl(), null);
+        notFound.close();
+        HttpFetcher.Response tooMany = mFetcher.get(searchUrl(), null);
+        tooMany.close();
+        assertEquals(404, notFound.getCode());
+        assertEquals(429, tooMany.getCode());
+        assertEquals(2, mRequestCount.get());
+    }
+
+    @Test
+    public void repeatedFailures_openTheCircuit() throws IOException {
+        mAlwaysFail = true;
+        // The first request fails on every attempt, the second opens the circuit on its first
+        // attempt and fails at once on its retry.
+        HttpFetcher.Response response = mFetcher.get(searchUrl(), null);
+        response.close();
+        assertEquals(503, response.getCode());
+        for (int i = 0; i < 2; i++) {
+            try {
+                mFetcher.get(searchUrl(), null);
+                fail("The circuit should be open");
+            } catch (CircuitBreaker.OpenException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(CIRCUIT_FAILURE_THRESHOLD, mRequestCount.get());
+        assertEquals(2, mMetrics.getCount(Metrics.HTTP_REJECTED));
+    }
+
+    @Test
+    public void openCircuit_letsOneTrialThroughAfterTheOpenTime() {
+        final long[] now = {0};
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 1000) {
+            @Override
+            long elapsedMillis() {
+                return now[0];
+            }
+        };
+        circuitBreaker.recordFailure();
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        assertFalse(circuitBreaker.allowRequest());
+
+        now[0] = 1000;
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        now[0] = 1500;
+        assertFalse(circuitBreaker.allowRequest());
+
+        now[0] = 2000;
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordSuccess();
+        assertFalse(circuitBreaker.isOpen());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void identicalRequestsInFlight_makeOneRequest() throws Exception {
+        mLatencyMillis = 300;
+        final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        final AtomicInteger coalescedCount = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(callers.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    RequestCoalescer<String>.Handle handle = coalescer.join("tolkien",
+                            new FetchRequest());
+                    if (handle.isCoalesced()) {
+                        coalescedCount.incrementAndGet();
+                    }
+                    return handle.get();
+                }
+            }));
+        }
+
+        String first = results.get(0).get();
+        for (Future<String> result : results) {
+            assertSame(first, result.get());
+        }
+        callers.shutdown();
+        assertEquals(BODY, first);
+        assertEquals(1, mRequestCount.get());
+        assertEquals(4, coalescedCount.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void sharedRequest_isOnlyCancelledByItsLastCaller() throws Exception {
+        mLatencyMillis = 300;
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        FetchRequest request = new FetchRequest();
+        RequestCoalescer<String>.Handle first = coalescer.join("tolkien", request);
+        RequestCoalescer<String>.Handle second = coalescer.join("tolkien", new FetchRequest());
+
+        first.cancel();
+        assertFalse(request.mCancelled.get());
+        assertEquals(BODY, second.get());
+
+        RequestCoalescer<String>.Handle third = coalescer.join("tolkien", request);
+        third.cancel();
+        assertTrue(request.mCancelled.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    private String fetch() throws IOException {
+        HttpFetcher.Response response = mFetcher.get(searchUrl(), null);
+        try {
+            return new String(readAll(response.getBody()), UTF_8);
+        } finally {
+            response.close();
+        }
+    }
+
+    private URL searchUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/books/v1/volumes?q=tolkien");
+    }
+
+    /**
+     * A request of the search page that records its cancellation
+     */
+    private class FetchRequest implements RequestCoalescer.Request<String> {
+
+        final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        @Override
+        public String execute() throws IOException {
+            return fetch();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled.set(true);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+            output.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        return output.toByteArray();
+    }
+}
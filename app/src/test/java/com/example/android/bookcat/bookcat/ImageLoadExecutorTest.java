@@ -0,0 +1,171 @@
+package com.example.android.bookcat.bookcat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the scheduling of the {@link ImageLoadExecutor} against a local HTTP server that adds a
+ * fixed latency to every thumbnail.
+ */
+public class ImageLoadExecutorTest {
+
+    private static final int THUMBNAILS_PER_SCREEN = 8;
+    private static final int LATENCY_MILLIS = 150;
+    private static final int THUMBNAIL_SIZE = 4 * 1024;
+
+    private HttpServer mServer;
+    private ExecutorService mServerThreads;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/thumbnail", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(LATENCY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, THUMBNAIL_SIZE);
+                OutputStream body = exchange.getResponseBody();
+                body.write(new byte[THUMBNAIL_SIZE]);
+                body.close();
+            }
+        });
+        mServerThreads = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerThreads);
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+        mServerThreads.shutdownNow();
+    }
+
+    @Test
+    public void screenOfThumbnails_loadsFasterThanSerialExecutor() throws Exception {
+        // The same single thread ordering as AsyncTask.execute().
+        ExecutorService serialExecutor = Executors.newSingleThreadExecutor();
+        ImageLoadExecutor imageLoadExecutor = new ImageLoadExecutor(4, 1);
+        try {
+            long serialMillis = timeScreenLoad(serialExecutor);
+            long parallelMillis = timeScreenLoad(
+                    imageLoadExecutor.forPriority(ImageLoadExecutor.PRIORITY_VISIBLE));
+            String times = "serial " + serialMillis + " ms, image executor " + parallelMillis
+                    + " ms";
+            // One thread waits for every thumbnail in turn, four threads for two in turn.
+            assertTrue(times, serialMillis >= THUMBNAILS_PER_SCREEN * LATENCY_MILLIS);
+            assertTrue(times, parallelMillis >= THUMBNAILS_PER_SCREEN / 4 * LATENCY_MILLIS);
+            assertTrue(times, parallelMillis * 2 < serialMillis);
+        } finally {
+            serialExecutor.shutdownNow();
+            imageLoadExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void visibleRequests_runBeforeOffscreenRequests() throws Exception {
+        ImageLoadExecutor imageLoadExecutor = new ImageLoadExecutor(1, 1);
+        Executor visible = imageLoadExecutor.forPriority(ImageLoadExecutor.PRIORITY_VISIBLE);
+        Executor offscreen = imageLoadExecutor.forPriority(ImageLoadExecutor.PRIORITY_OFFSCREEN);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        try {
+            // Keep the only network thread busy so that the next requests are queued.
+            visible.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            offscreen.execute(recordingRunnable("offscreen", order, done));
+            visible.execute(recordingRunnable("first visible", order, done));
+            visible.execute(recordingRunnable("second visible", order, done));
+            blocker.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("second visible", "first visible", "offscreen"), order);
+        } finally {
+            imageLoadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Downloads a full screen of thumbnails through the given executor
+     *
+     * @param executor the {@link Executor} that runs the downloads
+     * @return the time until the last thumbnail arrived in milliseconds
+     */
+    private long timeScreenLoad(Executor executor) throws Exception {
+        final CountDownLatch loaded = new CountDownLatch(THUMBNAILS_PER_SCREEN);
+        long start = System.nanoTime();
+        for (int i = 0; i < THUMBNAILS_PER_SCREEN; i++) {
+            final URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort()
+                    + "/thumbnail/" + i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        download(url);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    loaded.countDown();
+                }
+            });
+        }
+        assertTrue(loaded.await(30, TimeUnit.SECONDS));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static Runnable recordingRunnable(final String name, final List<String> order,
+                                              final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    private static void download(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        InputStream inputStream = connection.getInputStream();
+        byte[] buffer = new byte[8192];
+        while (inputStream.read(buffer) != -1) {
+            // Read the whole body like DownloadImageTask does.
+        }
+        inputStream.close();
+    }
+}
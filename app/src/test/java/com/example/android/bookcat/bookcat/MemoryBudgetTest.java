@@ -0,0 +1,61 @@
+package com.example.android.bookcat.bookcat;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Simulates the memory signals of the system through the {@link MemoryBudget} and checks the
+ * share of memory its holders are asked to keep
+ */
+public class MemoryBudgetTest {
+
+    private Metrics mMetrics;
+    private MemoryBudget mMemoryBudget;
+
+    @Before
+    public void createBudget() {
+        mMetrics = new Metrics();
+        mMemoryBudget = new MemoryBudget(mMetrics);
+    }
+
+    @Test
+    public void keptShare_shrinksWithThePressure() {
+        assertEquals(100, MemoryBudget.keepPercentFor(0));
+        assertEquals(75, MemoryBudget.keepPercentFor(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(50, MemoryBudget.keepPercentFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(25, MemoryBudget.keepPercentFor(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(75, MemoryBudget.keepPercentFor(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(25, MemoryBudget.keepPercentFor(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(0, MemoryBudget.keepPercentFor(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals(0, MemoryBudget.keepPercentFor(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void trims_reachRegisteredHoldersOnly() {
+        final List<Integer> trims = new ArrayList<>();
+        MemoryBudget.Trimmable trimmable = new MemoryBudget.Trimmable() {
+            @Override
+            public void trimMemory(int keepPercent) {
+                trims.add(keepPercent);
+            }
+        };
+        mMemoryBudget.register(trimmable);
+        mMemoryBudget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        mMemoryBudget.onLowMemory();
+        mMemoryBudget.unregister(trimmable);
+        mMemoryBudget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+        assertEquals(Arrays.asList(50, 0), trims);
+        assertEquals(3, mMetrics.getCount(Metrics.MEMORY_TRIMS));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the histograms and counters of {@link Metrics}
+ */
+public class MetricsTest {
+
+    @Test
+    public void percentiles_areUpperBoundsOfTheirBuckets() {
+        Metrics metrics = new Metrics();
+        // 90 fast binds of 80 us and 10 slow ones of 30 ms.
+        for (int i = 0; i < 90; i++) {
+            metrics.record(Metrics.LIST_BIND, TimeUnit.MICROSECONDS.toNanos(80));
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record(Metrics.LIST_BIND, TimeUnit.MILLISECONDS.toNanos(30));
+        }
+
+        Metrics.Histogram histogram = metrics.getHistogram(Metrics.LIST_BIND);
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getPercentileMicros(50));
+        assertEquals(100, histogram.getPercentileMicros(90));
+        assertEquals(30000, histogram.getPercentileMicros(99));
+        assertEquals(30000, histogram.getMaxMicros());
+        assertEquals((90 * 80 + 10 * 30000) / 100, histogram.getMeanMicros());
+    }
+
+    @Test
+    public void durationsLongerThanLastBucket_reportMaximum() {
+        Metrics metrics = new Metrics();
+        metrics.record(Metrics.HTTP_FIRST_BYTE, TimeUnit.SECONDS.toNanos(25));
+        assertEquals(TimeUnit.SECONDS.toMicros(25),
+                metrics.getHistogram(Metrics.HTTP_FIRST_BYTE).getPercentileMicros(50));
+    }
+
+    @Test
+    public void counters_addUp() {
+        Metrics metrics = new Metrics();
+        assertEquals(0, metrics.getCount(Metrics.HTTP_BYTES));
+        metrics.add(Metrics.HTTP_BYTES, 1500);
+        metrics.add(Metrics.HTTP_BYTES, 500);
+        metrics.increment(Metrics.HTTP_ERRORS);
+        assertEquals(2000, metrics.getCount(Metrics.HTTP_BYTES));
+        assertEquals(1, metrics.getCount(Metrics.HTTP_ERRORS));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(Metrics.HTTP_BYTES));
+        assertNull(metrics.getHistogram(Metrics.LIST_BIND));
+    }
+
+    @Test
+    public void dump_listsHistogramsAndCounters() {
+        Metrics metrics = new Metrics();
+        metrics.record(Metrics.SEARCH_PARSE, TimeUnit.MILLISECONDS.toNanos(4));
+        metrics.increment(Metrics.SEARCH_ERRORS);
+        String dump = metrics.dump();
+        assertTrue(dump, dump.contains("search.parse: count 1, mean 4 ms, p50 4 ms"));
+        assertTrue(dump, dump.contains("search.errors: 1\n"));
+    }
+}
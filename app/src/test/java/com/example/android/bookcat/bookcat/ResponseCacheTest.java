@@ -0,0 +1,169 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the freshness, revalidation data and eviction of the {@link ResponseCache}
+ */
+public class ResponseCacheTest {
+
+    private static final long TIME_TO_LIVE = 60 * 1000;
+
+    private File mDirectory;
+    private long mNow = 1000000;
+
+    @Before
+    public void createDirectory() throws IOException {
+        mDirectory = File.createTempFile("responses", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void keys_ignoreCaseAndWhiteSpace() {
+        assertEquals(ResponseCache.keyFor("Lord of  the Rings", 0),
+                ResponseCache.keyFor(" lord of the rings ", 0));
+        assertFalse(ResponseCache.keyFor("tolkien", 0)
+                .equals(ResponseCache.keyFor("tolkien", 20)));
+    }
+
+    @Test
+    public void keys_dependOnTheAddressOfTheApi() {
+        String googleKey = ResponseCache.keyFor("tolkien", 0);
+        BookSearchUrl.setBaseUrl("http://127.0.0.1:8080/books/v1/");
+        try {
+            assertEquals("http://127.0.0.1:8080/books/v1/volumes?q=tolkien%20&startIndex=0",
+                    BookSearchUrl.makeSearchUrl("tolkien", 0, 20).toString()
+                            .replaceAll("&maxResults.*", ""));
+            assertFalse(googleKey.equals(ResponseCache.keyFor("tolkien", 0)));
+        } finally {
+            BookSearchUrl.setBaseUrl(null);
+        }
+        assertEquals(googleKey, ResponseCache.keyFor("tolkien", 0));
+    }
+
+    @Test
+    public void committedResponse_isFreshUntilTimeToLive() throws IOException {
+        ResponseCache cache = newCache(1024 * 1024);
+        String key = ResponseCache.keyFor("tolkien", 0);
+        store(cache, key, "{\"items\":[]}", "\"etag-1\"", "Mon, 01 Aug 2016 10:00:00 GMT");
+
+        ResponseCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertTrue(cache.isFresh(entry));
+        assertEquals("{\"items\":[]}", readBody(cache, entry));
+
+        mNow += TIME_TO_LIVE + 1;
+        entry = cache.get(key);
+        assertFalse(cache.isFresh(entry));
+        assertEquals("\"etag-1\"", entry.getETag());
+        assertEquals("Mon, 01 Aug 2016 10:00:00 GMT", entry.getLastModified());
+
+        cache.markRevalidated(entry);
+        assertTrue(cache.isFresh(cache.get(key)));
+    }
+
+    @Test
+    public void abortedResponse_isNotStored() throws IOException {
+        ResponseCache cache = newCache(1024 * 1024);
+        String key = ResponseCache.keyFor("tolkien", 0);
+        ResponseCache.CachingInputStream stream = cache.cacheWhileReading(key,
+                new ByteArrayInputStream("not json".getBytes(Charset.forName("UTF-8"))),
+                null, null);
+        stream.read(new byte[4]);
+        stream.abort();
+        stream.close();
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void commit_storesBytesNotReadByTheParser() throws IOException {
+        ResponseCache cache = newCache(1024 * 1024);
+        String key = ResponseCache.keyFor("tolkien", 0);
+        ResponseCache.CachingInputStream stream = cache.cacheWhileReading(key,
+                new ByteArrayInputStream("0123456789".getBytes(Charset.forName("UTF-8"))),
+                null, null);
+        stream.read(new byte[3]);
+        stream.commit();
+        stream.close();
+
+        assertEquals("0123456789", readBody(cache, cache.get(key)));
+    }
+
+    @Test
+    public void leastRecentlyUsedResponse_isEvictedWhenOverSize() throws IOException {
+        ResponseCache cache = newCache(25);
+        String first = ResponseCache.keyFor("first", 0);
+        String second = ResponseCache.keyFor("second", 0);
+        String third = ResponseCache.keyFor("third", 0);
+        store(cache, first, "0123456789", null, null);
+        store(cache, second, "0123456789", null, null);
+        // Using the first response makes the second one the least recently used.
+        assertNotNull(cache.get(first));
+        store(cache, third, "0123456789", null, null);
+
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+        assertEquals(20, cache.size());
+    }
+
+    private ResponseCache newCache(long maxSize) {
+        return new ResponseCache(mDirectory, maxSize, TIME_TO_LIVE) {
+            @Override
+            long currentTimeMillis() {
+                return mNow;
+            }
+        };
+    }
+
+    private static void store(ResponseCache cache, String key, String body, String eTag,
+                              String lastModified) throws IOException {
+        ResponseCache.CachingInputStream stream = cache.cacheWhileReading(key,
+                new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8"))), eTag,
+                lastModified);
+        stream.commit();
+        stream.close();
+    }
+
+    private static String readBody(ResponseCache cache, ResponseCache.Entry entry)
+            throws IOException {
+        InputStream inputStream = cache.openBody(entry);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+            output.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        inputStream.close();
+        return output.toString("UTF-8");
+    }
+}
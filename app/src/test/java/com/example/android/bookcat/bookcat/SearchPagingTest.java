@@ -0,0 +1,50 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests when the {@link SearchFragment} stops asking for the next page of a request
+ */
+public class SearchPagingTest {
+
+    @Test
+    public void shortPageInTheMiddle_doesNotEndTheResults() {
+        // The API returned fewer books than asked for on the second page only.
+        List<List<Book>> pages = Arrays.asList(newPage(SearchFragment.PAGE_SIZE), newPage(7),
+                newPage(SearchFragment.PAGE_SIZE), newPage(3), newPage(0));
+        int requestedPages = 0;
+        int shownBooks = 0;
+        boolean hasMore = true;
+        while (hasMore) {
+            List<Book> page = pages.get(requestedPages++);
+            shownBooks += page.size();
+            hasMore = SearchFragment.hasPagesAfter(page);
+        }
+        assertEquals(pages.size(), requestedPages);
+        assertEquals(2 * SearchFragment.PAGE_SIZE + 7 + 3, shownBooks);
+    }
+
+    @Test
+    public void emptyPage_endsTheResults() {
+        assertFalse(SearchFragment.hasPagesAfter(Collections.<Book>emptyList()));
+        assertTrue(SearchFragment.hasPagesAfter(newPage(1)));
+    }
+
+    private static List<Book> newPage(int size) {
+        List<Book> page = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            page.add(new Book("id" + i, "Title " + i, Collections.singletonList("Author"),
+                    "Description " + i, "preview" + i, null));
+        }
+        return page;
+    }
+}
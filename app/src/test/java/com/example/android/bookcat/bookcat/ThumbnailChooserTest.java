@@ -0,0 +1,98 @@
+package com.example.android.bookcat.bookcat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the choice of the thumbnails by the {@link ThumbnailChooser} from the throughput measured
+ * by the {@link BandwidthMeter}
+ */
+public class ThumbnailChooserTest {
+
+    private static final String SMALL_URL = "http://books.google.com/books/content?id=a&zoom=5";
+    private static final String LARGE_URL = "http://books.google.com/books/content?id=a&zoom=1";
+    private static final int WIDE_VIEW = 216;
+
+    private BandwidthMeter mBandwidthMeter;
+    private ThumbnailChooser mChooser;
+    private Book mBook;
+
+    @Before
+    public void createChooser() {
+        mBandwidthMeter = new BandwidthMeter();
+        mChooser = new ThumbnailChooser(mBandwidthMeter);
+        mBook = new Book("a", "Title", Collections.singletonList("Author"), "", "preview",
+                SMALL_URL, LARGE_URL);
+    }
+
+    @Test
+    public void unknownConnection_showsTheSmallThumbnailFirst() {
+        assertEquals(-1, mBandwidthMeter.getBytesPerSecond());
+        assertEquals(SMALL_URL, mChooser.chooseImageUrl(mBook, WIDE_VIEW));
+        assertNull(mChooser.chooseUpgradeUrl(mBook, SMALL_URL, WIDE_VIEW));
+    }
+
+    @Test
+    public void slowConnection_keepsTheSmallThumbnail() {
+        // 10 KB in half a second
+        mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertEquals(SMALL_URL, mChooser.chooseImageUrl(mBook, WIDE_VIEW));
+        assertNull(mChooser.chooseUpgradeUrl(mBook, SMALL_URL, WIDE_VIEW));
+    }
+
+    @Test
+    public void fastConnection_upgradesShownThumbnailsAndDownloadsLargeOnesFirst() {
+        // 10 KB in 20 ms
+        mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(20));
+
+        assertEquals(LARGE_URL, mChooser.chooseUpgradeUrl(mBook, SMALL_URL, WIDE_VIEW));
+        assertEquals(LARGE_URL, mChooser.chooseImageUrl(mBook, WIDE_VIEW));
+        assertNull(mChooser.chooseUpgradeUrl(mBook, LARGE_URL, WIDE_VIEW));
+    }
+
+    @Test
+    public void narrowViews_keepTheSmallThumbnail() {
+        mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(20));
+
+        assertEquals(SMALL_URL, mChooser.chooseImageUrl(mBook,
+                ThumbnailChooser.SMALL_THUMBNAIL_WIDTH));
+        assertNull(mChooser.chooseUpgradeUrl(mBook, SMALL_URL,
+                ThumbnailChooser.SMALL_THUMBNAIL_WIDTH));
+    }
+
+    @Test
+    public void booksWithOneThumbnail_useIt() {
+        mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(20));
+        Book smallOnly = new Book("b", "Title", null, "", "preview", SMALL_URL);
+        Book largeOnly = new Book("c", "Title", null, "", "preview", "", LARGE_URL);
+
+        assertEquals(SMALL_URL, mChooser.chooseImageUrl(smallOnly, WIDE_VIEW));
+        assertNull(mChooser.chooseUpgradeUrl(smallOnly, SMALL_URL, WIDE_VIEW));
+        assertEquals(LARGE_URL, mChooser.chooseImageUrl(largeOnly, WIDE_VIEW));
+    }
+
+    @Test
+    public void estimate_followsAConnectionThatSlowsDown() {
+        for (int i = 0; i < 5; i++) {
+            mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertEquals(LARGE_URL, mChooser.chooseImageUrl(mBook, WIDE_VIEW));
+
+        // One slow download is not enough to go back to the small thumbnails, a few are.
+        mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(LARGE_URL, mChooser.chooseImageUrl(mBook, WIDE_VIEW));
+        for (int i = 0; i < 10; i++) {
+            mBandwidthMeter.record(10 * 1024, TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        assertEquals(SMALL_URL, mChooser.chooseImageUrl(mBook, WIDE_VIEW));
+        assertTrue(mBandwidthMeter.getBytesPerSecond() < ThumbnailChooser.FAST_BYTES_PER_SECOND);
+    }
+}
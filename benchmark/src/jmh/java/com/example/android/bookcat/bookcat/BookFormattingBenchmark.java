@@ -0,0 +1,48 @@
+package com.example.android.bookcat.bookcat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Formats the books of a recorded response the way the rows of the list and the logs do. Every
+ * operation formats one book, going round the books of the response.
+ */
+@State(Scope.Thread)
+public class BookFormattingBenchmark {
+
+    private Book[] mBooks;
+    private int mNext = 0;
+
+    @Setup
+    public void loadBooks() throws IOException {
+        String response = new String(Fixtures.read("volumes_large.json"),
+                Charset.forName("UTF-8"));
+        ArrayList<Book> books = BookJsonParser.extractBookList(response);
+        if (books == null || books.isEmpty()) {
+            throw new IOException("No books in the fixture");
+        }
+        mBooks = books.toArray(new Book[books.size()]);
+    }
+
+    @Benchmark
+    public String formatAuthorList() {
+        return Book.formatAuthorList(nextBook().getAuthors());
+    }
+
+    @Benchmark
+    public String bookToString() {
+        return nextBook().toString();
+    }
+
+    private Book nextBook() {
+        Book book = mBooks[mNext];
+        mNext = (mNext + 1) % mBooks.length;
+        return book;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.bookcat.bookcat;
+
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Writes the books of a recorded response to a {@link Parcel} and reads them back, the way the
+ * first page of results goes through the saved state. Every operation copies one book, going
+ * round the books of the response. The stand-in parcel keeps the values instead of marshalling
+ * them, so only the work of {@link Book} itself is measured.
+ */
+@State(Scope.Thread)
+public class BookParcelBenchmark {
+
+    private Book[] mBooks;
+    private int mNext = 0;
+
+    @Setup
+    public void loadBooks() throws IOException {
+        String response = new String(Fixtures.read("volumes_large.json"),
+                Charset.forName("UTF-8"));
+        ArrayList<Book> books = BookJsonParser.extractBookList(response);
+        if (books == null || books.isEmpty()) {
+            throw new IOException("No books in the fixture");
+        }
+        mBooks = books.toArray(new Book[books.size()]);
+    }
+
+    @Benchmark
+    public Book parcelRoundTrip() {
+        Book book = mBooks[mNext];
+        mNext = (mNext + 1) % mBooks.length;
+        Parcel parcel = Parcel.obtain();
+        try {
+            book.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return Book.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
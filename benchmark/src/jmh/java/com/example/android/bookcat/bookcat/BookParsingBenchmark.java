@@ -0,0 +1,42 @@
+package com.example.android.bookcat.bookcat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Parses recorded search responses of several sizes, with the tree parser of
+ * {@link BookJsonParser#extractBookList(String)} and with the streaming parser that replaced it
+ */
+@State(Scope.Benchmark)
+public class BookParsingBenchmark {
+
+    @Param({"volumes_small.json", "volumes_medium.json", "volumes_large.json"})
+    public String fixture;
+
+    private String mResponse;
+    private byte[] mResponseBytes;
+
+    @Setup
+    public void loadFixture() throws IOException {
+        mResponseBytes = Fixtures.read(fixture);
+        mResponse = new String(mResponseBytes, Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public ArrayList<Book> extractBookList() {
+        return BookJsonParser.extractBookList(mResponse);
+    }
+
+    @Benchmark
+    public ArrayList<Book> readBookList() throws IOException {
+        return BookJsonParser.readBookList(new ByteArrayInputStream(mResponseBytes));
+    }
+}
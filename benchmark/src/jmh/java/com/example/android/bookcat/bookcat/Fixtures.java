@@ -0,0 +1,39 @@
+package com.example.android.bookcat.bookcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the recorded search responses of the Google Books API
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads a recorded response
+     *
+     * @param name the file name of the response, e.g. volumes_medium.json
+     * @return the bytes of the response
+     */
+    static byte[] read(String name) throws IOException {
+        InputStream inputStream = Fixtures.class.getClassLoader().getResourceAsStream(name);
+        if (inputStream == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count = inputStream.read(buffer);
+            while (count != -1) {
+                output.write(buffer, 0, count);
+                count = inputStream.read(buffer);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
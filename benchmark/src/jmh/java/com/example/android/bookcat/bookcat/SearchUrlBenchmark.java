@@ -0,0 +1,25 @@
+package com.example.android.bookcat.bookcat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URL;
+
+/**
+ * Builds search URLs for queries with one, a few and many words, which is where the string
+ * concatenation loop of {@link BookSearchUrl#makeSearchUrl(String, int, int)} matters
+ */
+@State(Scope.Benchmark)
+public class SearchUrlBenchmark {
+
+    @Param({"tolkien", "the lord of the rings",
+            "a history of the decline and fall of the roman empire volume one of six"})
+    public String query;
+
+    @Benchmark
+    public URL makeSearchUrl() {
+        return BookSearchUrl.makeSearchUrl(query, 0, 20);
+    }
+}
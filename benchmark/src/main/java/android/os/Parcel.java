@@ -0,0 +1,49 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stands in for the Android {@link Parcel} on the JVM. The values are kept in a list in the
+ * order they are written and read back in the same order, which is all {@link Parcelable}
+ * objects rely on.
+ */
+public final class Parcel {
+
+    private final List<Object> mValues = new ArrayList<>();
+    private int mPosition = 0;
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+        mValues.clear();
+        mPosition = 0;
+    }
+
+    public void setDataPosition(int pos) {
+        mPosition = pos;
+    }
+
+    public String readString() {
+        return (String) mValues.get(mPosition++);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> createStringArrayList() {
+        List<String> list = (List<String>) mValues.get(mPosition++);
+        return (list == null) ? null : new ArrayList<>(list);
+    }
+
+    public void writeString(String val) {
+        mValues.add(val);
+    }
+
+    public void writeStringList(List<String> val) {
+        mValues.add((val == null) ? null : new ArrayList<>(val));
+    }
+}
@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * Stands in for the Android {@link Parcelable} on the JVM
+ */
+public interface Parcelable {
+
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+
+    interface Creator<T> {
+
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}